@@ -0,0 +1,126 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.util.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Common support for the benchmark drivers.
+ * The benchmarks are plain main programs; they are not
+ * run as part of the unit tests.
+ */
+
+abstract public class AbstractBenchmark
+{
+    //////////////////////////////////////////////////
+    // Constants
+
+    static final int WARMUP = 3;
+    static final int REPEAT = 5;
+
+    //////////////////////////////////////////////////
+    // Quiet VE
+
+    /**
+     * A VE whose configuration is not forced into debug mode,
+     * so that timings are not dominated by trace output.
+     * The program is not parsed by the constructor.
+     */
+    static public class QuietVE extends VE
+    {
+        public QuietVE(Configuration configuration)
+            throws VEException
+        {
+            super();
+            reset(configuration);
+            loadVerbs();
+        }
+
+        @Override
+        protected void
+        validate(Configuration cfg)
+            throws VEException
+        {
+            super.validate(cfg);
+            cfg.debug = false;
+            cfg.parsedebug = false;
+            cfg.verbose = false;
+        }
+    }
+
+    static public Configuration
+    configure(List<VerbDef> verbs)
+    {
+        Configuration cfg = new Configuration();
+        cfg.format = VEParser.class;
+        cfg.verbs = verbs;
+        return cfg;
+    }
+
+    //////////////////////////////////////////////////
+    // Script generation
+
+    /**
+     * Generate a script of n top-level actions
+     * using only verbs known to Test1Verbs.
+     */
+    static public String
+    flatScript(int n)
+    {
+        StringBuilder buf = new StringBuilder();
+        for(int i = 0;i < n;i++) {
+            switch (i % 4) {
+            case 0:
+                buf.append("startofline\n");
+                break;
+            case 1:
+                buf.append("  then \"abc").append(i).append("\"\n");
+                break;
+            case 2:
+                buf.append("  maybe 'x'; anything\n");
+                break;
+            case 3:
+                buf.append("  anythingbutnot \" \" # trailing comment\n");
+                break;
+            }
+        }
+        return buf.toString();
+    }
+
+    //////////////////////////////////////////////////
+    // Timing
+
+    /**
+     * Time the best of REPEAT runs after WARMUP runs.
+     *
+     * @return elapsed nanoseconds of the fastest run
+     */
+    static public long
+    time(Runnable r)
+    {
+        for(int i = 0;i < WARMUP;i++)
+            r.run();
+        long best = Long.MAX_VALUE;
+        for(int i = 0;i < REPEAT;i++) {
+            long start = System.nanoTime();
+            r.run();
+            long elapsed = System.nanoTime() - start;
+            if(elapsed < best) best = elapsed;
+        }
+        return best;
+    }
+
+    static public void
+    report(String label, long size, long nanos)
+    {
+        System.out.printf("%-24s size=%10d time=%10.3f ms  ns/unit=%8.1f%n",
+            label, size, nanos / 1e6, ((double) nanos) / size);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.util.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Common support for the randomized checks. Each check is a
+ * main program that generates scripts using the Test3Verbs, gets
+ * the same result two ways, e.g. with and without an optimization,
+ * and compares them; it exits with status 1 if any differ.
+ * The seed can be changed with -Dseed=n.
+ */
+
+abstract public class AbstractCheck
+{
+    //////////////////////////////////////////////////
+    // Constants
+
+    static final int MAXREPORTS = 5; // failures printed in full
+
+    /**
+     * Actions from which scripts are built; they cover each
+     * arg type, the same text as args of different types,
+     * escapes, and both action separators.
+     */
+    static final String[] ATOMS = {
+        "then 'a'", "then \"bc\"", "then 'a\\tb'", "then 5", "then -12", "then foo",
+        "then 'foo'", "then '5'", "find 'x'", "stop", "anything", "maybe 'q'", "maybe ''",
+        "startofline",
+    };
+
+    //////////////////////////////////////////////////
+    // Instance variables
+
+    protected Random random = null;
+    protected int checked = 0;
+    protected int failed = 0;
+
+    //////////////////////////////////////////////////
+    // Constructor(s)
+
+    protected AbstractCheck(long seed)
+    {
+        this.random = new Random(Long.getLong("seed", seed));
+    }
+
+    //////////////////////////////////////////////////
+    // Script generation
+
+    /**
+     * @return a script of up to width actions per block,
+     * with oneof blocks nested up to depth deep
+     */
+    public String
+    script(int width, int depth)
+    {
+        StringBuilder buf = new StringBuilder();
+        script(buf, width, depth);
+        buf.append("endofline\n");
+        return buf.toString();
+    }
+
+    protected void
+    script(StringBuilder buf, int width, int depth)
+    {
+        int n = random.nextInt(width + 1);
+        for(int i = 0;i < n;i++) {
+            if(depth > 0 && random.nextInt(5) == 0) {
+                buf.append("oneof {\n");
+                script(buf, width, depth - 1);
+                buf.append("} {\n");
+                script(buf, width, depth - 1);
+                buf.append("}\n");
+            } else
+                buf.append(ATOMS[random.nextInt(ATOMS.length)])
+                    .append(random.nextBoolean() ? "\n" : ";");
+        }
+    }
+
+    //////////////////////////////////////////////////
+    // Comparison
+
+    static public VE
+    quiet(Configuration cfg)
+        throws VEException
+    {
+        return new AbstractBenchmark.QuietVE(cfg);
+    }
+
+    static public Configuration
+    configure()
+    {
+        return AbstractBenchmark.configure(Test3Verbs.getVerbs());
+    }
+
+    /**
+     * @return the program followed by the position of every
+     * action, depth first, so that positions are compared too
+     */
+    static public String
+    describe(ActionList program)
+    {
+        StringBuilder buf = new StringBuilder(program.toString());
+        buf.append(" @");
+        positions(program, buf);
+        return buf.toString();
+    }
+
+    static protected void
+    positions(ActionList block, StringBuilder buf)
+    {
+        for(Action action : block) {
+            buf.append(' ').append(action.getPosition());
+            if(action.args == null)
+                continue;
+            for(Arg arg : action.args) {
+                if(arg.type == ArgType.BLOCK) {
+                    buf.append(" [");
+                    positions(arg.asBlock(), buf);
+                    buf.append(" ]");
+                }
+            }
+        }
+    }
+
+    static public String
+    describe(VEException e)
+    {
+        return "error: " + e.getMessage() + " @" + e.getErrorLine() + ":" + e.getErrorChar();
+    }
+
+    /**
+     * @return the output of evaluating a program into a Test3State,
+     * or the error it failed with
+     */
+    static public String
+    evaluate(ActionList program, VE ve)
+    {
+        Test3Verbs.Test3State state = new Test3Verbs.Test3State(ve);
+        try {
+            program.evaluate(state, ve);
+            return state.toString();
+        } catch (VEException e) {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    public void
+    compare(String what, String script, String expected, String actual)
+    {
+        checked++;
+        if(expected.equals(actual))
+            return;
+        failed++;
+        if(failed <= MAXREPORTS) {
+            System.out.println("FAIL " + what + " for script:");
+            System.out.println(script);
+            System.out.println("  expected: " + expected);
+            System.out.println("  actual:   " + actual);
+        }
+    }
+
+    /**
+     * Report the totals.
+     *
+     * @return the exit code: 1 if any comparison failed
+     */
+    public int
+    finish()
+    {
+        System.out.printf("%s: %d checked, %d failed%n", getClass().getSimpleName(), checked, failed);
+        return (failed == 0 ? 0 : 1);
+    }
+
+    static protected void
+    report(Exception e)
+    {
+        System.err.println("Exception: " + e);
+        e.printStackTrace(System.err);
+    }
+}
@@ -96,7 +96,7 @@ public class AbstractTest
                 File ifile = new File(infile);
                 if(!ifile.canRead())
                     fatal("Input file not readable: " + ifile);
-                cfg.input = Util.readfile(infile);
+                cfg.input = ScriptLoader.load(infile);
             }
 
             if(cmd.hasOption("o")) {
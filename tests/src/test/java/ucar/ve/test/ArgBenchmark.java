@@ -0,0 +1,96 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Measure reading parsed NUMBER and WORD args, as a verb in a hot
+ * loop would, against re-parsing their text on every call.
+ */
+
+public class ArgBenchmark extends AbstractBenchmark
+{
+    static final int CALLS = 1000000;
+
+    static long sink = 0;
+
+    static public void main(String[] argv)
+        throws Exception
+    {
+        VE ve = new QuietVE(configure(Test1Verbs.getVerbs()));
+        final ArgList args = new ArgList();
+        args.add(new Arg(ArgType.NUMBER, new Span("x 1234567 y", 2, 9)));
+        args.add(new Arg(ArgType.WORD, new Span("x some_word y", 2, 11)));
+        for(int rep = 0;rep < 3;rep++) {
+            long nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    for(int i = 0;i < CALLS;i++)
+                        sink += Long.valueOf(args.get(0).value.toString());
+                }
+            });
+            report("reparse long", CALLS, nanos);
+            nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        for(int i = 0;i < CALLS;i++)
+                            sink += args.getNumber(0).longValue();
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("getNumber", CALLS, nanos);
+            nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        for(int i = 0;i < CALLS;i++)
+                            sink += args.getLong(0);
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("getLong", CALLS, nanos);
+            nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        for(int i = 0;i < CALLS;i++)
+                            sink += (long) args.getDouble(0);
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("getDouble", CALLS, nanos);
+            nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        for(int i = 0;i < CALLS;i++)
+                            sink += args.getWord(1).length();
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("getWord", CALLS, nanos);
+        }
+        if(sink == 42)
+            System.err.println(ve);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Compare running one script against several verb sets
+ * by re-parsing it for each set versus parsing it once
+ * unbound and binding the result to each set.
+ */
+
+public class BindBenchmark extends AbstractBenchmark
+{
+    /**
+     * Generate a script of n top-level actions using
+     * only verbs known to all of Test1Verbs, Test2Verbs
+     * and Test3Verbs.
+     */
+    static public String
+    commonScript(int n)
+    {
+        StringBuilder buf = new StringBuilder();
+        for(int i = 0;i < n;i++) {
+            switch (i % 3) {
+            case 0:
+                buf.append("startofline\n");
+                break;
+            case 1:
+                buf.append("  then \"abc").append(i).append("\"\n");
+                break;
+            case 2:
+                buf.append("  maybe 'x'; anything\n");
+                break;
+            }
+        }
+        return buf.toString();
+    }
+
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final List<VE> sets = new ArrayList<>();
+        sets.add(new QuietVE(configure(Test1Verbs.getVerbs())));
+        sets.add(new QuietVE(configure(Test2Verbs.getVerbs())));
+        sets.add(new QuietVE(configure(Test3Verbs.getVerbs())));
+        for(int n = 1000;n <= 512000;n *= 2) {
+            final String script = commonScript(n);
+            long nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        for(VE ve : sets)
+                            new VEParser(ve).parse(script);
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("reparse " + n + " actions", script.length(), nanos);
+            nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        ActionList unbound = new VEParser(sets.get(0)).parseUnbound(script);
+                        for(VE ve : sets)
+                            new Binder(ve.getVerbTable()).bind(unbound);
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("bind " + n + " actions", script.length(), nanos);
+        }
+    }
+}
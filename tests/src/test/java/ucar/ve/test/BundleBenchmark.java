@@ -0,0 +1,91 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Compare parsing many small scripts with opening a
+ * ProgramBundle of them and getting each program once.
+ * Opening should take the same time whatever the size.
+ */
+
+public class BundleBenchmark extends AbstractBenchmark
+{
+    static public String
+    smallScript(int i)
+    {
+        return "startofline\n  then \"abc" + i + "\"\n  maybe 'x'; anything\n"
+            + "oneof { then \"x" + (i % 7) + "\"; } {\n then 'y'\n }\nendofline\n";
+    }
+
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final VE ve = new QuietVE(configure(Test3Verbs.getVerbs()));
+        for(int n = 1000;n <= 64000;n *= 4) {
+            final Map<String, String> scripts = new LinkedHashMap<>();
+            Map<String, ActionList> programs = new LinkedHashMap<>();
+            for(int i = 0;i < n;i++) {
+                String name = "script" + i;
+                scripts.put(name, smallScript(i));
+                VEParser parser = new VEParser(ve);
+                parser.parse(scripts.get(name));
+                programs.put(name, parser.getProgram());
+            }
+            File file = File.createTempFile("bundle", ".veb");
+            file.deleteOnExit();
+            final Path path = file.toPath();
+            ProgramBundle.write(path, programs, 0);
+            long nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        for(String script : scripts.values())
+                            new VEParser(ve).parse(script);
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("parse " + n + " scripts", n, nanos);
+            nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        ProgramBundle.open(path, ve.getVerbs());
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("open " + n + " (" + file.length() + " bytes)", 1, nanos);
+            nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        ProgramBundle bundle = ProgramBundle.open(path, ve.getVerbs());
+                        for(String name : scripts.keySet())
+                            bundle.get(name);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("open+get " + n + " programs", n, nanos);
+        }
+    }
+}
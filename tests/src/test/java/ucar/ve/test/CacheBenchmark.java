@@ -0,0 +1,99 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Compare compiling a working set of scripts every time
+ * with getting them from a ProgramCache, with a cache that
+ * holds them all and with one that holds an eighth of them.
+ */
+
+public class CacheBenchmark extends AbstractBenchmark
+{
+    static final int SCRIPTS = 2000;
+    static final int LOOKUPS = 20000;
+
+    static CompiledProgram
+    compile(String script)
+        throws VEException
+    {
+        VE ve = new QuietVE(configure(Test3Verbs.getVerbs()));
+        VEParser parser = new VEParser(ve);
+        parser.parse(script);
+        return new CompiledProgram(parser.getProgram(), ve.getVerbs());
+    }
+
+    static void
+    run(final List<String> scripts, final ProgramCache cache)
+    {
+        try {
+            // Skewed: most lookups are of the first tenth
+            for(int i = 0;i < LOOKUPS;i++) {
+                final String script = scripts.get(i % 4 == 0 ? (i / 4 * 7) % SCRIPTS : (i * 7) % (SCRIPTS / 10));
+                if(cache == null) {
+                    compile(script);
+                    continue;
+                }
+                ProgramCache.Key key = new ProgramCache.Key(script, VEParser.class, Test3Verbs.getVerbs());
+                cache.get(key, new Callable<CompiledProgram>()
+                {
+                    public CompiledProgram call()
+                        throws VEException
+                    {
+                        return compile(script);
+                    }
+                });
+            }
+        } catch (VEException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final List<String> scripts = new ArrayList<>();
+        for(int i = 0;i < SCRIPTS;i++)
+            scripts.add(BundleBenchmark.smallScript(i));
+        long size = compile(scripts.get(0)).getSizeEstimate();
+        long nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                CacheBenchmark.run(scripts, null);
+            }
+        });
+        report("compile every time", LOOKUPS, nanos);
+        final ProgramCache all = new ProgramCache(size * SCRIPTS * 2);
+        nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                CacheBenchmark.run(scripts, all);
+            }
+        });
+        report("cache, all fit", LOOKUPS, nanos);
+        System.out.println(all);
+        final ProgramCache small = new ProgramCache(size * SCRIPTS / 8);
+        nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                CacheBenchmark.run(scripts, small);
+            }
+        });
+        report("cache, an eighth fit", LOOKUPS, nanos);
+        System.out.println(small);
+    }
+}
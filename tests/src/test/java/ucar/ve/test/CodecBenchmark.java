@@ -0,0 +1,58 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Compare parsing a script with decoding its
+ * ProgramCodec encoding, with and without positions.
+ */
+
+public class CodecBenchmark extends AbstractBenchmark
+{
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final VE ve = new QuietVE(configure(Test1Verbs.getVerbs()));
+        for(int n = 1000;n <= 256000;n *= 4) {
+            final String script = flatScript(n);
+            VEParser parser = new VEParser(ve);
+            parser.parse(script);
+            ActionList program = parser.getProgram();
+            long nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        new VEParser(ve).parse(script);
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("parse " + n + " actions", n, nanos);
+            for(int flags = 0;flags <= ProgramCodec.POSITIONS;flags++) {
+                final byte[] encoded = ProgramCodec.encode(program, flags);
+                nanos = time(new Runnable()
+                {
+                    public void run()
+                    {
+                        try {
+                            ProgramCodec.decode(encoded, ve.getVerbs());
+                        } catch (VEException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                });
+                String label = (flags == 0 ? "decode " : "decode+pos ");
+                report(label + n + " actions (" + encoded.length + "/" + script.length() + " bytes)", n, nanos);
+            }
+        }
+    }
+}
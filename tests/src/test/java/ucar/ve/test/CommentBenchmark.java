@@ -0,0 +1,104 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.io.File;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Measure lexing of scripts that are mostly indentation,
+ * blank lines and comment banners, as generated scripts are.
+ * Each script is parsed as a String, as a CharBuffer (as
+ * ScriptLoader returns for non-ASCII files) and as the
+ * AsciiText of a mapped file, which is scanned eight chars
+ * at a time; the three must give the same program.
+ */
+
+public class CommentBenchmark extends AbstractBenchmark
+{
+    static final String BANNER =
+        "##################################################################\n";
+
+    /**
+     * Generate n actions, each preceded by a comment banner
+     * and followed by a blank, indented line.
+     */
+    static public String
+    commentScript(int n)
+    {
+        StringBuilder buf = new StringBuilder();
+        for(int i = 0;i < n;i++) {
+            buf.append(BANNER);
+            buf.append("# Step ").append(i).append(": match the next part of the line\n");
+            buf.append(BANNER);
+            buf.append("                then \"abc").append(i).append("\"   # trailing comment\n");
+            buf.append("                \t  \n");
+        }
+        return buf.toString();
+    }
+
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final VE ve = new QuietVE(configure(Test1Verbs.getVerbs()));
+        for(int n = 1000;n <= 256000;n *= 4) {
+            final String script = commentScript(n);
+            final CharBuffer buffer = CharBuffer.wrap(script.toCharArray());
+            File file = File.createTempFile("comment", ".ve");
+            file.deleteOnExit();
+            Files.write(file.toPath(), script.getBytes(Util.UTF8));
+            final CharSequence mapped = ScriptLoader.load(file.toPath());
+            VEParser a = new VEParser(ve);
+            a.parse(buffer);
+            VEParser b = new VEParser(ve);
+            b.parse(mapped);
+            if(!a.getProgram().toString().equals(b.getProgram().toString()))
+                throw new IllegalStateException("AsciiText parse differs");
+            long nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        new VEParser(ve).parse(script);
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("string " + n + " actions", script.length(), nanos);
+            nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        new VEParser(ve).parse(buffer);
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("buffer " + n + " actions", script.length(), nanos);
+            nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        new VEParser(ve).parse(mapped);
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("mapped " + n + " actions", script.length(), nanos);
+            file.delete();
+        }
+    }
+}
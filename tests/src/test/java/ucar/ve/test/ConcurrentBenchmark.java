@@ -0,0 +1,123 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Stress a CompiledProgram shared by many threads: every
+ * evaluation must produce the output of a serial evaluation.
+ * The program is parsed lazily, so the blocks are forced by
+ * the compile and not raced for by the threads.
+ * Also compares evaluating the shared program with the
+ * one-VE-per-request pattern of parsing the text each time.
+ */
+
+public class ConcurrentBenchmark extends AbstractBenchmark
+{
+    static final int THREADS = 8;
+    static final int EVALUATIONS = 2000; // per thread
+
+    static String
+    script()
+    {
+        StringBuilder buf = new StringBuilder();
+        for(int i = 0;i < 50;i++) {
+            buf.append(BundleBenchmark.smallScript(i));
+            buf.append("oneof { oneof { then 'a").append(i).append("'; } { maybe 'b'; }; } { find 'c'; }\n");
+        }
+        return buf.toString();
+    }
+
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final String script = script();
+        final Configuration cfg = configure(Test3Verbs.getVerbs());
+        cfg.lazy = true;
+        final VE ve = new QuietVE(cfg);
+        VEParser parser = new VEParser(ve);
+        parser.parse(script);
+        final CompiledProgram compiled = new CompiledProgram(parser.getProgram(), ve.getVerbs());
+        Test3Verbs.Test3State serial = new Test3Verbs.Test3State(null);
+        compiled.evaluate(serial);
+        final String expected = serial.toString();
+
+        // Stress: all threads released at once
+        final AtomicInteger bad = new AtomicInteger(0);
+        final AtomicInteger ready = new AtomicInteger(0);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> futures = new ArrayList<>();
+        for(int t = 0;t < THREADS;t++) {
+            futures.add(pool.submit(new Callable<Void>()
+            {
+                public Void call()
+                    throws VEException
+                {
+                    ready.incrementAndGet();
+                    while(ready.get() < THREADS)
+                        Thread.yield();
+                    for(int i = 0;i < EVALUATIONS;i++) {
+                        Test3Verbs.Test3State state = new Test3Verbs.Test3State(null);
+                        compiled.evaluate(state);
+                        if(!expected.equals(state.toString()))
+                            bad.incrementAndGet();
+                    }
+                    return null;
+                }
+            }));
+        }
+        for(Future<Void> f : futures)
+            f.get();
+        pool.shutdown();
+        System.out.printf("stress: %d threads x %d evaluations, %d mismatches%n",
+            THREADS, EVALUATIONS, bad.get());
+        if(bad.get() != 0)
+            throw new IllegalStateException("CompiledProgram: concurrent evaluation differs from serial");
+
+        final int n = 200;
+        long nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    for(int i = 0;i < n;i++) {
+                        VE perrequest = new QuietVE(configure(Test3Verbs.getVerbs()));
+                        VEParser p = new VEParser(perrequest);
+                        p.parse(script);
+                        p.getProgram().evaluate(new Test3Verbs.Test3State(perrequest), perrequest);
+                    }
+                } catch (VEException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        report("VE per request", n, nanos);
+        nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    for(int i = 0;i < n;i++)
+                        compiled.evaluate(new Test3Verbs.Test3State(null));
+                } catch (VEException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        report("shared compiled", n, nanos);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Measure VE.diagnose() on a batch of small scripts, half
+ * of them with errors, one at a time and as a batch.
+ */
+
+public class DiagnoseBenchmark extends AbstractBenchmark
+{
+    static final String[] GOOD = {
+        "startofline\nthen 'abc'\nmaybe 'x'; anything\n",
+        "oneof { then \"x\"; } {\n then 'y'\n }\nendofline\n",
+    };
+
+    static final String[] BAD = {
+        "startofline\nthen 'abc' 'def'\nbogus 1\n",
+        "oneof { then \"x\"; } (\n then 'y'\n }\nendofline 3\n",
+    };
+
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final VE ve = new QuietVE(configure(Test3Verbs.getVerbs()));
+        for(int n = 1000;n <= 64000;n *= 4) {
+            final List<String> scripts = new ArrayList<>();
+            for(int i = 0;i < n;i++)
+                scripts.add(i % 2 == 0 ? GOOD[i / 2 % GOOD.length] : BAD[i / 2 % BAD.length]);
+            long nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    for(String script : scripts)
+                        ve.diagnose(script);
+                }
+            });
+            report("single " + n + " scripts", n, nanos);
+            nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    ve.diagnose(scripts);
+                }
+            });
+            report("batch " + n + " scripts", n, nanos);
+        }
+    }
+}
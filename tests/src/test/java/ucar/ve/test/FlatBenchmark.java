@@ -0,0 +1,74 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Compare the heap footprint and the evaluation time
+ * of a program as an ActionList and as a FlatProgram.
+ */
+
+public class FlatBenchmark extends AbstractBenchmark
+{
+    static long
+    used()
+    {
+        Runtime rt = Runtime.getRuntime();
+        for(int i = 0;i < 3;i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final VE ve = new QuietVE(configure(Test3Verbs.getVerbs()));
+        for(int n = 16000;n <= 1024000;n *= 4) {
+            String script = BundleBenchmark.smallScript(0);
+            StringBuilder buf = new StringBuilder();
+            while(buf.length() < n * 8) // about n actions
+                buf.append(script);
+            script = buf.toString();
+            long before = used();
+            VEParser parser = new VEParser(ve);
+            parser.parse(script);
+            final ActionList program = parser.getProgram();
+            long tree = used() - before;
+            final FlatProgram flat = new FlatProgram(program);
+            long flattened = used() - before - tree;
+            int nactions = flat.getActionCount();
+            System.out.printf("heap %d actions: actionlist %d bytes/action, flat %d bytes/action%n",
+                nactions, tree / nactions, flattened / nactions);
+            long nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        program.evaluate(new Test3Verbs.Test3State(ve), ve);
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("evaluate actionlist " + nactions, nactions, nanos);
+            nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        flat.evaluate(new Test3Verbs.Test3State(ve));
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("evaluate flat " + nactions, nactions, nanos);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Compare the retained heap and the parse time of a
+ * machine-generated program that repeats a few blocks,
+ * parsed with and without Configuration.intern, without
+ * positions, and with intern and positions, where only
+ * the constants can be shared.
+ */
+
+public class InternBenchmark extends AbstractBenchmark
+{
+    static long
+    used()
+    {
+        Runtime rt = Runtime.getRuntime();
+        for(int i = 0;i < 3;i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static String
+    script(int n)
+    {
+        StringBuilder buf = new StringBuilder();
+        for(int i = 0;i < n;i++) {
+            buf.append("startofline\n");
+            buf.append("oneof { then 'key'; maybe 's'; oneof { anything; } { find '").append(i % 8)
+                .append("'; }; } { then 'value'; something; }\n");
+            buf.append("then \"=\"; oneof { word; } { anyof '0123456789'; }\n");
+            buf.append("endofline\n");
+        }
+        return buf.toString();
+    }
+
+    static long
+    measure(String label, final VE ve, final String script)
+        throws VEException
+    {
+        long before = used();
+        VEParser parser = new VEParser(ve);
+        parser.parse(script);
+        ActionList program = parser.getProgram();
+        long retained = used() - before;
+        System.out.printf("%-24s %d bytes retained%n", label, retained);
+        if(parser.getInterner() != null)
+            System.out.println(parser.getInterner());
+        long nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    new VEParser(ve).parse(script);
+                } catch (VEException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        report("parse " + label, script.length(), nanos);
+        if(program.isEmpty())
+            throw new IllegalStateException("empty program"); // keep it live
+        return retained;
+    }
+
+    static public void main(String[] argv)
+        throws Exception
+    {
+        String script = script(20000);
+        // Blocks are shared only if positions are not kept
+        Configuration cfg = configure(Test3Verbs.getVerbs());
+        cfg.positions = false;
+        VE plain = new QuietVE(cfg);
+        cfg = configure(Test3Verbs.getVerbs());
+        cfg.positions = false;
+        cfg.intern = true;
+        VE interned = new QuietVE(cfg);
+        cfg = configure(Test3Verbs.getVerbs());
+        cfg.intern = true;
+        VE positioned = new QuietVE(cfg);
+        // The script is kept by all, so it does not count
+        long a = measure("plain", plain, script);
+        long b = measure("interned", interned, script);
+        System.out.printf("retained heap ratio %.1f%n", (double) a / b);
+        measure("interned, positions", positioned, script);
+    }
+}
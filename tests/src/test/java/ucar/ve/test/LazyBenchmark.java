@@ -0,0 +1,105 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Compare eager and lazy parsing (see Configuration.lazy)
+ * of scripts whose oneof branches are large.
+ * The lazy parse is also timed with every block forced,
+ * which should cost about the same as an eager parse
+ * even for deeply nested blocks.
+ */
+
+public class LazyBenchmark extends AbstractBenchmark
+{
+    static final int BRANCHES = 100;
+
+    /**
+     * Generate BRANCHES oneof actions whose first
+     * branch has the given number of actions.
+     */
+    static public String
+    branchScript(int size)
+    {
+        StringBuilder branch = new StringBuilder();
+        for(int i = 0;i < size;i++)
+            branch.append("  then \"abc").append(i).append("\"; maybe 'x'\n");
+        StringBuilder buf = new StringBuilder();
+        for(int i = 0;i < BRANCHES;i++)
+            buf.append("oneof {\n").append(branch).append("} {\nthen 'y'\n}\n");
+        return buf.toString();
+    }
+
+    static void
+    run(final VE eager, final VE lazy, String label, final String script)
+    {
+        long nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    new VEParser(eager).parse(script);
+                } catch (VEException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        report("eager " + label, script.length(), nanos);
+        nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    new VEParser(lazy).parse(script);
+                } catch (VEException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        report("lazy " + label, script.length(), nanos);
+    }
+
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final VE eager = new QuietVE(configure(Test3Verbs.getVerbs()));
+        Configuration cfg = configure(Test3Verbs.getVerbs());
+        cfg.lazy = true;
+        final VE lazy = new QuietVE(cfg);
+        for(int size = 10;size <= 10000;size *= 10)
+            run(eager, lazy, "branch " + size, branchScript(size));
+        for(int depth = 1000;depth <= 64000;depth *= 4) {
+            final String script = NestingBenchmark.nestedScript(depth);
+            run(eager, lazy, "depth " + depth, script);
+            long nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        // Force the chain of first branches down to the
+                        // innermost one, from the outside in
+                        VEParser parser = new VEParser(lazy);
+                        parser.parse(script);
+                        ActionList block = parser.getProgram();
+                        for(;;) {
+                            ArgList args = block.get(0).args;
+                            if(args.size() == 0 || args.get(0).type != ArgType.BLOCK)
+                                break;
+                            block = args.getBlock(0);
+                        }
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("forced depth " + depth, script.length(), nanos);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Measure lexing of string constants as their length grows,
+ * both without escapes (scanned in bulk) and with an escape
+ * near the end (decoded).
+ */
+
+public class LiteralBenchmark extends AbstractBenchmark
+{
+    static final int ACTIONS = 1000;
+
+    /**
+     * Generate ACTIONS then actions each with a string
+     * constant of the given length.
+     */
+    static public String
+    literalScript(int length, boolean escape)
+    {
+        StringBuilder literal = new StringBuilder();
+        for(int i = 0;i < length;i++)
+            literal.append((char) ('a' + (i % 26)));
+        if(escape)
+            literal.replace(length - 2, length, "\\t");
+        StringBuilder buf = new StringBuilder();
+        for(int i = 0;i < ACTIONS;i++)
+            buf.append("then \"").append(literal).append("\"\n");
+        return buf.toString();
+    }
+
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final VE ve = new QuietVE(configure(Test1Verbs.getVerbs()));
+        for(int length = 16;length <= 16384;length *= 4) {
+            for(boolean escape : new boolean[]{false, true}) {
+                final String script = literalScript(length, escape);
+                long nanos = time(new Runnable()
+                {
+                    public void run()
+                    {
+                        try {
+                            VEParser parser = new VEParser(ve);
+                            parser.parse(script);
+                            for(Action action : parser.getProgram())
+                                action.args.getString(0);
+                        } catch (VEException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                });
+                report((escape ? "escaped " : "plain ") + length, script.length(), nanos);
+            }
+        }
+    }
+}
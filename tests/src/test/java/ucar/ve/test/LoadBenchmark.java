@@ -0,0 +1,77 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Measure loading a script file with ScriptLoader, both
+ * mapped and through a channel as for stdin, and then
+ * parsing the loaded text directly.
+ */
+
+public class LoadBenchmark extends AbstractBenchmark
+{
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final VE ve = new QuietVE(configure(Test1Verbs.getVerbs()));
+        for(int n = 16000;n <= 1024000;n *= 4) {
+            final File file = File.createTempFile("load", ".ve");
+            file.deleteOnExit();
+            String script = flatScript(n);
+            try (Writer w = new OutputStreamWriter(new FileOutputStream(file), Util.UTF8)) {
+                w.write(script);
+            }
+            long nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        ScriptLoader.load(file.getPath());
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("mapped " + n + " actions", file.length(), nanos);
+            nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try (FileInputStream in = new FileInputStream(file)) {
+                        ScriptLoader.load(Channels.newChannel(in));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("channel " + n + " actions", file.length(), nanos);
+            nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        new VEParser(ve).parse(ScriptLoader.load(file.getPath()));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("load+parse " + n + " actions", file.length(), nanos);
+        }
+    }
+}
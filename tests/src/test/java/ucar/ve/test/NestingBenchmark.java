@@ -0,0 +1,56 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Measure parse throughput as block nesting depth grows.
+ * Each script nests oneof blocks (see Test3Verbs) to the
+ * given depth; the depths go well past the point where
+ * a recursive parser would overflow the default thread stack.
+ */
+
+public class NestingBenchmark extends AbstractBenchmark
+{
+    /**
+     * Generate depth nested oneof actions.
+     */
+    static public String
+    nestedScript(int depth)
+    {
+        StringBuilder buf = new StringBuilder();
+        for(int i = 0;i < depth;i++)
+            buf.append("oneof {\n");
+        buf.append("then \"x\"\n");
+        for(int i = 0;i < depth;i++)
+            buf.append("} {\nthen \"y\"\n}\n");
+        return buf.toString();
+    }
+
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final VE ve = new QuietVE(configure(Test3Verbs.getVerbs()));
+        for(int depth = 1000;depth <= 512000;depth *= 2) {
+            final String script = nestedScript(depth);
+            long nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        new VEParser(ve).parse(script);
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("depth " + depth, script.length(), nanos);
+        }
+    }
+}
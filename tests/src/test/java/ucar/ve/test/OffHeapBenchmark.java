@@ -0,0 +1,158 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Compare the garbage collection time of a workload that keeps
+ * many large programs live, with the programs kept as ActionLists
+ * and as OffHeapPrograms, and the evaluation time of each, with
+ * that of a FlatProgram, which has the same layout on the heap;
+ * the output of the ActionList and OffHeapProgram must be the same.
+ */
+
+public class OffHeapBenchmark extends AbstractBenchmark
+{
+    static final int PROGRAMS = 16;
+    static final int SCRIPTS = 4000; // small scripts per program
+    static final int GARBAGE = 4000000; // short-lived objects allocated per round
+    static final int ROUNDS = 20;
+
+    static long
+    gctime()
+    {
+        long total = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            total += gc.getCollectionTime();
+        return total;
+    }
+
+    static long
+    used()
+    {
+        Runtime rt = Runtime.getRuntime();
+        for(int i = 0;i < 3;i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /**
+     * Allocate garbage, keeping some of it long enough to be
+     * promoted, and time full collections as well; each
+     * collection must trace whatever the programs left on the heap.
+     */
+    static void
+    churn(String label)
+    {
+        List<Object> survivors = new ArrayList<>();
+        long gc = gctime();
+        long full = 0;
+        for(int r = 0;r < ROUNDS;r++) {
+            for(int i = 0;i < GARBAGE;i++) {
+                Object o = new int[4];
+                if(i % 64 == 0)
+                    survivors.add(o);
+            }
+            survivors.clear();
+            long start = System.nanoTime();
+            System.gc();
+            full += System.nanoTime() - start;
+        }
+        System.out.printf("%-24s gc time=%6d ms  full gc pause=%8.3f ms%n",
+            label, gctime() - gc, full / 1e6 / ROUNDS);
+    }
+
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final VE ve = new QuietVE(configure(Test3Verbs.getVerbs()));
+        StringBuilder buf = new StringBuilder();
+        for(int i = 0;i < SCRIPTS;i++)
+            buf.append(BundleBenchmark.smallScript(i));
+        String script = buf.toString();
+
+        long before = used();
+        List<ActionList> programs = new ArrayList<>();
+        for(int i = 0;i < PROGRAMS;i++) {
+            VEParser parser = new VEParser(ve);
+            parser.parse(script);
+            programs.add(parser.getProgram());
+        }
+        System.out.printf("%-24s %d bytes on heap%n", "ActionList", used() - before);
+        churn("ActionList");
+        final ActionList program = programs.get(0);
+        programs = null;
+
+        before = used();
+        OffHeapProgram.Arena arena = new OffHeapProgram.Arena();
+        List<OffHeapProgram> offheap = new ArrayList<>();
+        for(int i = 0;i < PROGRAMS;i++)
+            offheap.add(arena.allocate(program));
+        System.out.printf("%-24s %d bytes on heap, %d off%n", "OffHeapProgram", used() - before,
+            offheap.get(0).getByteSize() * PROGRAMS);
+        churn("OffHeapProgram");
+        final OffHeapProgram stored = offheap.get(0);
+
+        Test3Verbs.Test3State s1 = new Test3Verbs.Test3State(ve);
+        program.evaluate(s1, null);
+        Test3Verbs.Test3State s2 = new Test3Verbs.Test3State(ve);
+        stored.evaluate(s2);
+        if(!s1.toString().equals(s2.toString()))
+            throw new IllegalStateException("OffHeapProgram changed the output");
+        long nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    program.evaluate(new Test3Verbs.Test3State(ve), null);
+                } catch (VEException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        report("evaluate ActionList", stored.getActionCount(), nanos);
+        final FlatProgram flat = new FlatProgram(program);
+        nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    flat.evaluate(new Test3Verbs.Test3State(ve));
+                } catch (VEException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        report("evaluate FlatProgram", stored.getActionCount(), nanos);
+        nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    stored.evaluate(new Test3Verbs.Test3State(ve));
+                } catch (VEException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        report("evaluate OffHeapProgram", stored.getActionCount(), nanos);
+        arena.close();
+        try {
+            stored.evaluate(new Test3Verbs.Test3State(ve));
+            throw new IllegalStateException("closed program evaluated");
+        } catch (VEException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Compare evaluating a generated-looking program, with runs of
+ * literals and no-op verbs, before and after the Optimizer,
+ * and check that the output is the same.
+ */
+
+public class OptimizeBenchmark extends AbstractBenchmark
+{
+    static String
+    script(int n)
+    {
+        StringBuilder buf = new StringBuilder();
+        for(int i = 0;i < n;i++) {
+            buf.append("startofline\n");
+            buf.append("find 'k").append(i % 10).append("'; then '='; then \"v\"; stop\n");
+            buf.append("oneof { then 'a'; then 'b'; then 'c'; } { then 'd'; stop; then 'e'; }\n");
+            buf.append("maybe 'x'; then '-'; then '-'\n");
+            buf.append("endofline\n");
+        }
+        return buf.toString();
+    }
+
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final VE ve = new QuietVE(configure(Test3Verbs.getVerbs()));
+        String script = script(2000);
+        VEParser parser = new VEParser(ve);
+        parser.parse(script);
+        final ActionList plain = parser.getProgram();
+        parser = new VEParser(ve);
+        parser.parse(script);
+        final ActionList optimized = parser.getProgram();
+        Optimizer optimizer = new Optimizer();
+        long nanos = System.nanoTime();
+        optimizer.optimize(optimized);
+        nanos = System.nanoTime() - nanos;
+        int before = new FlatProgram(plain).getActionCount();
+        int after = new FlatProgram(optimized).getActionCount();
+        report("optimize " + optimizer.getRewriteCount() + " rewrites", before, nanos);
+        Test3Verbs.Test3State s1 = new Test3Verbs.Test3State(ve);
+        plain.evaluate(s1, ve);
+        Test3Verbs.Test3State s2 = new Test3Verbs.Test3State(ve);
+        optimized.evaluate(s2, ve);
+        if(!s1.toString().equals(s2.toString()))
+            throw new IllegalStateException("Optimizer changed the output");
+        nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    plain.evaluate(new Test3Verbs.Test3State(ve), ve);
+                } catch (VEException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        report("evaluate " + before + " actions", before, nanos);
+        nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    optimized.evaluate(new Test3Verbs.Test3State(ve), ve);
+                } catch (VEException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        report("evaluate " + after + " optimized", before, nanos);
+    }
+}
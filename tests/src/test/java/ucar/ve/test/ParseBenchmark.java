@@ -0,0 +1,55 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Measure parse time as a function of script size.
+ * Each step doubles the number of actions; with linear
+ * parsing the reported ns/char should stay roughly constant.
+ * Each size is also parsed in parallel on the common pool.
+ */
+
+public class ParseBenchmark extends AbstractBenchmark
+{
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final VE ve = new QuietVE(configure(Test1Verbs.getVerbs()));
+        for(int n = 1000;n <= 1024000;n *= 2) {
+            final String script = flatScript(n);
+            long nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        new VEParser(ve).parse(script);
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("parse " + n + " actions", script.length(), nanos);
+            nanos = time(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        new VEParser(ve).parse(script, ForkJoinPool.commonPool());
+                    } catch (VEException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            report("parallel " + n + " actions", script.length(), nanos);
+        }
+    }
+}
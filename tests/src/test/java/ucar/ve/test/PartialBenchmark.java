@@ -0,0 +1,68 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Compare evaluating an all-pure program as parsed with
+ * evaluating it after partial evaluation, which leaves one
+ * action, and check that the output is the same.
+ */
+
+public class PartialBenchmark extends AbstractBenchmark
+{
+    static public void main(String[] argv)
+        throws Exception
+    {
+        final VE ve = new QuietVE(configure(Test3Verbs.getVerbs()));
+        StringBuilder buf = new StringBuilder();
+        for(int i = 0;i < 200;i++)
+            buf.append(BundleBenchmark.smallScript(i));
+        VEParser parser = new VEParser(ve);
+        parser.parse(buf.toString());
+        final CompiledProgram plain = new CompiledProgram(parser.getProgram(), ve.getVerbs());
+        long nanos = System.nanoTime();
+        final CompiledProgram folded = new CompiledProgram(parser.getProgram(), ve.getVerbs(),
+            Test3Verbs.getTarget(ve));
+        nanos = System.nanoTime() - nanos;
+        report("compile, folding", plain.getActionCount(), nanos);
+        Test3Verbs.Test3State s1 = new Test3Verbs.Test3State(ve);
+        plain.evaluate(s1);
+        Test3Verbs.Test3State s2 = new Test3Verbs.Test3State(ve);
+        folded.evaluate(s2);
+        if(!s1.toString().equals(s2.toString()))
+            throw new IllegalStateException("PartialEvaluator changed the output");
+        nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    for(int i = 0;i < 100;i++)
+                        plain.evaluate(new Test3Verbs.Test3State(ve));
+                } catch (VEException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        report("evaluate " + plain.getActionCount() + " actions", 100, nanos);
+        nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    for(int i = 0;i < 100;i++)
+                        folded.evaluate(new Test3Verbs.Test3State(ve));
+                } catch (VEException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        report("evaluate " + folded.getActionCount() + " folded", 100, nanos);
+    }
+}
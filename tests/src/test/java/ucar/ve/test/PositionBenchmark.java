@@ -0,0 +1,72 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Compare the retained heap per action and the parse time
+ * with action positions kept (packed into a long) and with
+ * them dropped by Configuration.positions; parse errors
+ * must be located either way.
+ */
+
+public class PositionBenchmark extends AbstractBenchmark
+{
+    static long
+    used()
+    {
+        Runtime rt = Runtime.getRuntime();
+        for(int i = 0;i < 3;i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static void
+    measure(String label, final VE ve, final String script)
+        throws VEException
+    {
+        long before = used();
+        VEParser parser = new VEParser(ve);
+        parser.parse(script);
+        ActionList program = parser.getProgram();
+        long retained = used() - before;
+        int nactions = new FlatProgram(program).getActionCount();
+        System.out.printf("%-24s %d bytes/action%n", label, retained / nactions);
+        long nanos = time(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    new VEParser(ve).parse(script);
+                } catch (VEException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        report("parse " + label, nactions, nanos);
+        try {
+            new VEParser(ve).parse("then 'a'\nthen\n");
+            throw new IllegalStateException("error not found");
+        } catch (VEException e) {
+            if(e.getErrorLine() != 1)
+                throw new IllegalStateException("error not located: " + e);
+        }
+    }
+
+    static public void main(String[] argv)
+        throws Exception
+    {
+        String script = flatScript(1000000);
+        Configuration cfg = configure(Test1Verbs.getVerbs());
+        measure("positions kept", new QuietVE(cfg), script);
+        cfg = configure(Test1Verbs.getVerbs());
+        cfg.positions = false;
+        measure("positions dropped", new QuietVE(cfg), script);
+    }
+}
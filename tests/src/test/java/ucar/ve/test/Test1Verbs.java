@@ -62,6 +62,7 @@ abstract public class Test1Verbs
             throws VEException
         {
             super(name, argtypes);
+            setPure(true);
             tag = VerbTag.tagFor(name);
         }
 
@@ -73,6 +74,21 @@ abstract public class Test1Verbs
         }
     }
 
+    /**
+     * @return a ThenTarget whose states are Test1States
+     */
+    static public PartialEvaluator.Target
+    getTarget(final VE ve)
+    {
+        return new ThenTarget(ve)
+        {
+            public Object newState()
+            {
+                return new Test1State();
+            }
+        };
+    }
+
     static public class Test1State
     {
         StringBuilder buf = new StringBuilder();
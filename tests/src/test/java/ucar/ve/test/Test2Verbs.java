@@ -52,6 +52,21 @@ abstract public class Test2Verbs
 
     //////////////////////////////////////////////////
 
+    /**
+     * @return a ThenTarget whose states are Test2States
+     */
+    static public PartialEvaluator.Target
+    getTarget(final VE ve)
+    {
+        return new ThenTarget(ve)
+        {
+            public Object newState()
+            {
+                return new Test2State();
+            }
+        };
+    }
+
     static public class Test2State
     {
         StringBuilder buf = new StringBuilder();
@@ -80,6 +95,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("startofline");
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -95,6 +111,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("endofline");
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -110,6 +127,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("find", ArgType.STRING);
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -125,6 +143,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("then", ArgType.STRING);
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -140,6 +159,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("maybe", ArgType.STRING);
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -165,6 +185,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("anything");
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -180,6 +201,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("anythingbut", ArgType.STRING);
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -195,6 +217,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("anythingbutnot", ArgType.STRING);
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -210,6 +233,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("something");
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -225,6 +249,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("somethingbut", ArgType.STRING);
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -240,6 +265,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("linebreak");
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -255,6 +281,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("br"); // same as linebreak
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -270,6 +297,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("tab");
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -285,6 +313,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("word");
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -300,6 +329,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("anyof", ArgType.STRING);
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -315,6 +345,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("any", ArgType.STRING); //same as anyof
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -330,6 +361,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("or");
+            setPure(true);
         }
 
 
@@ -346,6 +378,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("begincapture");
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -361,6 +394,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("endcapture");
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -376,6 +410,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("begin");
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -391,6 +426,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("end");
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -409,6 +445,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("either");
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
@@ -424,6 +461,7 @@ abstract public class Test2Verbs
 	    throws VEException
         {
             super("stop");
+            setPure(true);
         }
 
         public void evaluate(ArgList args, Object state) throws VEException
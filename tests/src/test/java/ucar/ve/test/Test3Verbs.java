@@ -61,6 +61,7 @@ abstract public class Test3Verbs
             throws VEException
         {
             super(name, argtypes);
+            setPure(true);
             tag = VerbTag.tagFor(name);
         }
 
@@ -72,6 +73,21 @@ abstract public class Test3Verbs
         }
     }
 
+    /**
+     * @return a ThenTarget whose states are Test3States
+     */
+    static public PartialEvaluator.Target
+    getTarget(final VE ve)
+    {
+        return new ThenTarget(ve)
+        {
+            public Object newState()
+            {
+                return new Test3State(ve);
+            }
+        };
+    }
+
     static public class Test3State
     {
         StringBuilder buf = new StringBuilder();
@@ -240,6 +256,7 @@ abstract public class Test3Verbs
             throws VEException
         {
             super("find", ArgType.STRING);
+            addRewrite(new Optimizer.Merge("then"));
         }
     }
 
@@ -249,6 +266,7 @@ abstract public class Test3Verbs
             throws VEException
         {
             super("then", ArgType.STRING);
+            addRewrite(new Optimizer.Merge("then"));
         }
     }
 
@@ -414,6 +432,7 @@ abstract public class Test3Verbs
             throws VEException
         {
             super("stop");
+            addRewrite(new Optimizer.Drop());
         }
     }
 
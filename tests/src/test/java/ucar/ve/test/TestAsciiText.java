@@ -0,0 +1,89 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Check that the lexer's bulk scans give the same actions,
+ * positions and errors as reading one charAt() at a time, as it
+ * does for a StringBuilder: a ScriptLoader.AsciiText is scanned
+ * eight chars at a time, a String with indexOf and a CharBuffer
+ * in its backing array (here at a nonzero offset). The scripts
+ * are heavy in blanks, control chars and comments, cut at random
+ * lengths so that runs end at every offset within a long.
+ */
+
+public class TestAsciiText extends AbstractCheck
+{
+    static final int SCRIPTS = 20000;
+
+    // Blanks and control chars in many mixes, and what ends them
+    static final String[] PIECES = {
+        " ", "\t", "\r", "\013", "\177", "  \t  ", "        ", "\n", "\0",
+        "# comment\n", "#\t#  # \r\n", "#", "then 'a'", "then \"b c\"", ";",
+        "oneof { then 'x'; } { stop; }", "startofline", "}", "'",
+    };
+
+    public TestAsciiText()
+    {
+        super(14);
+    }
+
+    static String
+    parse(VE ve, CharSequence script)
+    {
+        try {
+            VEParser parser = new VEParser(ve);
+            parser.parse(script);
+            return describe(parser.getProgram());
+        } catch (VEException e) {
+            return describe(e);
+        }
+    }
+
+    public int
+    test()
+        throws Exception
+    {
+        VE ve = quiet(configure());
+        for(int t = 0;t < SCRIPTS;t++) {
+            StringBuilder buf = new StringBuilder();
+            int n = random.nextInt(24);
+            for(int i = 0;i < n;i++)
+                buf.append(PIECES[random.nextInt(PIECES.length)]);
+            String script = buf.substring(0, random.nextInt(buf.length() + 1));
+            ByteBuffer bytes = ByteBuffer.wrap(script.getBytes(Util.UTF8));
+            CharSequence ascii = new ScriptLoader.AsciiText(bytes);
+            char[] chars = ("  " + script).toCharArray();
+            CharSequence buffer = CharBuffer.wrap(chars, 2, script.length());
+            String shown = script.replace("\0", "\\0");
+            String expected = parse(ve, new StringBuilder(script));
+            compare("String parse", shown, expected, parse(ve, script));
+            compare("AsciiText parse", shown, expected, parse(ve, ascii));
+            compare("CharBuffer parse", shown, expected, parse(ve, buffer));
+            compare("AsciiText text", script, script, ascii.toString());
+        }
+        return finish();
+    }
+
+    static public void main(String[] argv)
+    {
+        int exitcode = 0;
+        try {
+            exitcode = new TestAsciiText().test();
+        } catch (Exception e) {
+            report(e);
+            exitcode = 1;
+        }
+        System.exit(exitcode);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Check that VEs sharing a ProgramCache get the program
+ * they would have parsed themselves, when the same script
+ * is compiled with every mix of the Configuration flags
+ * that change the program, and that evaluating the cached
+ * program gives the same output.
+ */
+
+public class TestCache extends AbstractCheck
+{
+    static final int SCRIPTS = 200;
+    static final int FLAGS = 4; // optimize, intern, lazy, positions
+
+    /**
+     * A VE that parses, or gets its program from the
+     * cache, as a VE does, but without debug output.
+     */
+    static class CachingVE extends VE
+    {
+        CachingVE(Configuration cfg)
+            throws VEException
+        {
+            super(cfg);
+        }
+
+        @Override
+        protected void
+        validate(Configuration cfg)
+            throws VEException
+        {
+            super.validate(cfg);
+            cfg.debug = false;
+            cfg.parsedebug = false;
+            cfg.verbose = false;
+        }
+    }
+
+    public TestCache()
+    {
+        super(20);
+    }
+
+    static Configuration
+    configure(String script, int flags)
+    {
+        Configuration cfg = configure();
+        cfg.input = script;
+        cfg.optimize = (flags & 1) != 0;
+        cfg.intern = (flags & 2) != 0;
+        cfg.lazy = (flags & 4) != 0;
+        cfg.positions = (flags & 8) == 0;
+        return cfg;
+    }
+
+    static String
+    program(Configuration cfg)
+    {
+        try {
+            return describe(new CachingVE(cfg).getProgram());
+        } catch (VEException e) {
+            return describe(e);
+        }
+    }
+
+    /**
+     * @return the output of VE.evaluate(), which on a cache
+     * hit runs the cached program without copying it
+     */
+    static String
+    output(Configuration cfg)
+    {
+        try {
+            VE ve = new CachingVE(cfg);
+            Test3Verbs.Test3State state = new Test3Verbs.Test3State(ve);
+            ve.evaluate(state);
+            return state.toString();
+        } catch (VEException e) {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    public int
+    test()
+        throws Exception
+    {
+        ProgramCache cache = new ProgramCache();
+        Set<String> scripts = new HashSet<>();
+        for(int t = 0;t < SCRIPTS;t++) {
+            String script = script(6, 2);
+            scripts.add(script);
+            for(int flags = 0;flags < (1 << FLAGS);flags++) {
+                Configuration cfg = configure(script, flags);
+                String expected = program(cfg);
+                String output = output(cfg);
+                cfg.cache = cache;
+                compare("cached program, flags=" + flags, script, expected, program(cfg));
+                compare("cached output, flags=" + flags, script, output, output(cfg));
+            }
+        }
+        // One program per script and mix of flags
+        compare("cache size", "", Integer.toString(scripts.size() << FLAGS), Integer.toString(cache.size()));
+        return finish();
+    }
+
+    static public void main(String[] argv)
+    {
+        int exitcode = 0;
+        try {
+            exitcode = new TestCache().test();
+        } catch (Exception e) {
+            report(e);
+            exitcode = 1;
+        }
+        System.exit(exitcode);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Check that applying random edits with an IncrementalParser
+ * gives the same actions, positions and errors as parsing the
+ * edited text from scratch, with and without Configuration.intern.
+ */
+
+public class TestIncremental extends AbstractCheck
+{
+    static final int SCRIPTS = 300;
+    static final int EDITS = 20; // per script
+
+    // Inserted by the edits; the first few are whole actions
+    static final String[] PIECES = {
+        "then 'a'\n", "oneof { then \"x\"; } {\n then 'y'\n }\n", "startofline\n",
+        "then \"q;.\" . then 5;", "\n\n", "  ", "{", "}", "'", "\"", "then", " bogus",
+        ";", ".", "#", "\\", "then \"a\\\"b\"\n",
+    };
+
+    public TestIncremental()
+    {
+        super(7);
+    }
+
+    static String
+    full(VE ve, String script)
+    {
+        try {
+            VEParser parser = new VEParser(ve);
+            parser.parse(script);
+            return describe(parser.getProgram());
+        } catch (VEException e) {
+            return describe(e);
+        }
+    }
+
+    /**
+     * Equal blocks are shared only within each top-level action,
+     * so the positions of an interned program are compared with
+     * those of one interned the same way, by a fresh parse.
+     */
+    static String
+    fresh(VE ve, String script)
+    {
+        try {
+            return describe(new IncrementalParser(ve).parse(script));
+        } catch (VEException e) {
+            return describe(e);
+        }
+    }
+
+    protected void
+    test(VE ve, boolean interned)
+        throws VEException
+    {
+        for(int t = 0;t < SCRIPTS;t++) {
+            String script = script(6, 2);
+            IncrementalParser parser = new IncrementalParser(ve);
+            ActionList program;
+            String actual;
+            try {
+                program = parser.parse(script);
+                actual = describe(program);
+            } catch (VEException e) {
+                program = parser.getProgram();
+                actual = describe(e);
+            }
+            compare("initial parse", script, interned ? fresh(ve, script) : full(ve, script), actual);
+            if(interned)
+                compare("initial parse", script, full(ve, script).split(" @")[0], actual.split(" @")[0]);
+            for(int k = 0;k < EDITS;k++) {
+                int offset = random.nextInt(script.length() + 1);
+                int removed = random.nextInt(Math.min(8, script.length() - offset) + 1);
+                String inserted = (random.nextInt(3) == 0 ? "" : PIECES[random.nextInt(PIECES.length)]);
+                String edited = script.substring(0, offset) + inserted + script.substring(offset + removed);
+                try {
+                    program = parser.edit(program, offset, removed, inserted);
+                    actual = describe(program);
+                } catch (VEException e) {
+                    program = parser.getProgram();
+                    actual = describe(e);
+                }
+                String what = String.format("edit at %d removing %d inserting \"%s\"",
+                    offset, removed, inserted.replace("\n", "\\n"));
+                compare(what, script, edited, parser.getText());
+                compare(what, script, interned ? fresh(ve, edited) : full(ve, edited), actual);
+                script = edited;
+            }
+        }
+    }
+
+    public int
+    test()
+        throws Exception
+    {
+        test(quiet(configure()), false);
+        Configuration cfg = configure();
+        cfg.intern = true;
+        test(quiet(cfg), true);
+        return finish();
+    }
+
+    static public void main(String[] argv)
+    {
+        int exitcode = 0;
+        try {
+            exitcode = new TestIncremental().test();
+        } catch (Exception e) {
+            report(e);
+            exitcode = 1;
+        }
+        System.exit(exitcode);
+    }
+}
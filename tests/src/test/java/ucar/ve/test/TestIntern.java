@@ -0,0 +1,97 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Check that a parse with Configuration.intern gives the same
+ * program, positions and output as a plain parse, also after the
+ * Optimizer rewrites the shared blocks, and that it survives a
+ * ProgramCodec round trip; and that repeated blocks are shared,
+ * read only, when positions are not kept.
+ */
+
+public class TestIntern extends AbstractCheck
+{
+    static final int SCRIPTS = 3000;
+
+    public TestIntern()
+    {
+        super(22);
+    }
+
+    static ActionList
+    parse(VE ve, String script)
+        throws VEException
+    {
+        VEParser parser = new VEParser(ve);
+        parser.parse(script);
+        return parser.getProgram();
+    }
+
+    public int
+    test()
+        throws Exception
+    {
+        VE plain = quiet(configure());
+        Configuration cfg = configure();
+        cfg.intern = true;
+        VE interned = quiet(cfg);
+        for(int t = 0;t < SCRIPTS;t++) {
+            String script = script(4, 4);
+            ActionList x = parse(plain, script);
+            ActionList y = parse(interned, script);
+            compare("program", script, describe(x), describe(y));
+            compare("output", script, evaluate(x, plain), evaluate(y, interned));
+            ActionList z = ProgramCodec.decode(ProgramCodec.encode(y, ProgramCodec.POSITIONS), interned.getVerbs());
+            compare("codec round trip", script, describe(x), describe(z));
+            new Optimizer().optimize(x);
+            new Optimizer().optimize(y);
+            compare("optimized program", script, describe(x), describe(y));
+            compare("optimized output", script, evaluate(x, plain), evaluate(y, interned));
+        }
+        String repeated = "oneof { then 'a'; } { then 'a'; }\noneof { then 'a'; } { then 'a'; }\n";
+        // Blocks at different places keep their own positions
+        ActionList program = parse(interned, repeated);
+        compare("positions kept", repeated, describe(parse(plain, repeated)), describe(program));
+        compare("not shared", repeated, "false",
+            Boolean.toString(program.get(0).args.getBlock(0) == program.get(1).args.getBlock(1)));
+        // Without positions, equal blocks and args are one object
+        cfg = configure();
+        cfg.intern = true;
+        cfg.positions = false;
+        program = parse(quiet(cfg), repeated);
+        ArgList first = program.get(0).args;
+        ArgList second = program.get(1).args;
+        compare("shared", repeated, "true true true",
+            (first.getBlock(0) == second.getBlock(1)) + " " + (first.get(0) == second.get(1))
+                + " " + (first.getBlock(0).get(0).args.get(0) == second.getBlock(0).get(0).args.get(0)));
+        String change;
+        try {
+            first.getBlock(0).add(first.getBlock(0).get(0));
+            change = "changed";
+        } catch (UnsupportedOperationException e) {
+            change = "read only";
+        }
+        compare("shared block", repeated, "read only", change);
+        return finish();
+    }
+
+    static public void main(String[] argv)
+    {
+        int exitcode = 0;
+        try {
+            exitcode = new TestIntern().test();
+        } catch (Exception e) {
+            report(e);
+            exitcode = 1;
+        }
+        System.exit(exitcode);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Check that a lazy parse gives the same program, positions
+ * and output as a full parse once its blocks are used, and that
+ * threads forcing the blocks of one program at the same time
+ * each get the same, single parse of every block.
+ */
+
+public class TestLazy extends AbstractCheck
+{
+    static final int SCRIPTS = 2000;
+    static final int ROUNDS = 100;
+    static final int THREADS = 4;
+
+    public TestLazy()
+    {
+        super(11);
+    }
+
+    static ActionList
+    parse(VE ve, String script)
+        throws VEException
+    {
+        VEParser parser = new VEParser(ve);
+        parser.parse(script);
+        return parser.getProgram();
+    }
+
+    /**
+     * Force every block of a program, depth first.
+     *
+     * @return the blocks, in the order they were reached
+     */
+    static List<ActionList>
+    force(ActionList block, List<ActionList> blocks)
+        throws VEException
+    {
+        for(Action action : block) {
+            int n = (action.args == null ? 0 : action.args.size());
+            for(int j = 0;j < n;j++) {
+                if(action.args.get(j).type == ArgType.BLOCK) {
+                    ActionList inner = action.args.getBlock(j);
+                    blocks.add(inner);
+                    force(inner, blocks);
+                }
+            }
+        }
+        return blocks;
+    }
+
+    public int
+    test()
+        throws Exception
+    {
+        VE full = quiet(configure());
+        Configuration cfg = configure();
+        cfg.lazy = true;
+        VE lazy = quiet(cfg);
+        for(int t = 0;t < SCRIPTS;t++) {
+            String script = script(5, 4);
+            ActionList x = parse(full, script);
+            ActionList y = parse(lazy, script);
+            compare("output", script, evaluate(x, full), evaluate(y, lazy));
+            compare("program", script, describe(x), describe(y));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            for(int r = 0;r < ROUNDS;r++) {
+                String script = script(40, 2);
+                final ActionList program = parse(lazy, script);
+                List<Future<List<ActionList>>> results = new ArrayList<>();
+                for(int i = 0;i < THREADS;i++) {
+                    results.add(pool.submit(new Callable<List<ActionList>>()
+                    {
+                        public List<ActionList> call()
+                            throws VEException
+                        {
+                            return force(program, new ArrayList<ActionList>());
+                        }
+                    }));
+                }
+                List<ActionList> first = results.get(0).get();
+                for(Future<List<ActionList>> result : results) {
+                    List<ActionList> blocks = result.get();
+                    boolean same = (blocks.size() == first.size());
+                    for(int i = 0;same && i < blocks.size();i++)
+                        same = (blocks.get(i) == first.get(i));
+                    compare("same blocks in every thread", script, "true", Boolean.toString(same));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return finish();
+    }
+
+    static public void main(String[] argv)
+    {
+        int exitcode = 0;
+        try {
+            exitcode = new TestLazy().test();
+        } catch (Exception e) {
+            report(e);
+            exitcode = 1;
+        }
+        System.exit(exitcode);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Check that the Optimizer does not change what a program
+ * outputs, or the error it fails with, and that one pass of
+ * it reaches a fixpoint, for eagerly and lazily parsed scripts.
+ */
+
+public class TestOptimize extends AbstractCheck
+{
+    static final int SCRIPTS = 5000;
+
+    public TestOptimize()
+    {
+        super(21);
+    }
+
+    protected void
+    test(VE ve)
+        throws VEException
+    {
+        for(int t = 0;t < SCRIPTS;t++) {
+            String script = script(7, 3);
+            VEParser parser = new VEParser(ve);
+            parser.parse(script);
+            ActionList program = parser.getProgram();
+            String expected = evaluate(program, ve);
+            new Optimizer().optimize(program);
+            compare("optimized output", script, expected, evaluate(program, ve));
+            Optimizer again = new Optimizer();
+            again.optimize(program);
+            compare("rewrites after a pass", script, "0", Integer.toString(again.getRewriteCount()));
+        }
+    }
+
+    public int
+    test()
+        throws Exception
+    {
+        test(quiet(configure()));
+        Configuration cfg = configure();
+        cfg.lazy = true;
+        test(quiet(cfg));
+        return finish();
+    }
+
+    static public void main(String[] argv)
+    {
+        int exitcode = 0;
+        try {
+            exitcode = new TestOptimize().test();
+        } catch (Exception e) {
+            report(e);
+            exitcode = 1;
+        }
+        System.exit(exitcode);
+    }
+}
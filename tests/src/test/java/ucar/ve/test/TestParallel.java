@@ -0,0 +1,86 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Check that a parallel parse with small chunks gives the
+ * same actions, positions and errors as a sequential parse,
+ * including for scripts with errors injected.
+ */
+
+public class TestParallel extends AbstractCheck
+{
+    static final int SCRIPTS = 3000;
+
+    // Pasted into scripts at random, mostly to break them
+    static final String[] NOISE = {"}", "{", "'", "\"", "bogus", "then", "#", ";", ".", "\n"};
+
+    public TestParallel()
+    {
+        super(6);
+    }
+
+    static String
+    sequential(VE ve, String script)
+    {
+        try {
+            VEParser parser = new VEParser(ve);
+            parser.parse(script);
+            return describe(parser.getProgram());
+        } catch (VEException e) {
+            return describe(e);
+        }
+    }
+
+    static String
+    parallel(VE ve, String script, int chunksize)
+    {
+        try {
+            VEParser parser = new VEParser(ve);
+            parser.parse(script, ForkJoinPool.commonPool(), chunksize);
+            return describe(parser.getProgram());
+        } catch (VEException e) {
+            return describe(e);
+        }
+    }
+
+    public int
+    test()
+        throws Exception
+    {
+        VE ve = quiet(configure());
+        for(int t = 0;t < SCRIPTS;t++) {
+            String script = script(8, 3);
+            if(random.nextInt(3) == 0) {
+                int at = random.nextInt(script.length() + 1);
+                script = script.substring(0, at) + NOISE[random.nextInt(NOISE.length)]
+                    + script.substring(at);
+            }
+            int chunksize = 1 + random.nextInt(64);
+            compare("parallel parse, chunksize=" + chunksize, script,
+                sequential(ve, script), parallel(ve, script, chunksize));
+        }
+        return finish();
+    }
+
+    static public void main(String[] argv)
+    {
+        int exitcode = 0;
+        try {
+            exitcode = new TestParallel().test();
+        } catch (Exception e) {
+            report(e);
+            exitcode = 1;
+        }
+        System.exit(exitcode);
+    }
+}
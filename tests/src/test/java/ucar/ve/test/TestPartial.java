@@ -0,0 +1,70 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Check that folding the pure runs of a program at compile time
+ * (see PartialEvaluator) does not change what it outputs, or the
+ * error it fails with, and that it does not add actions.
+ */
+
+public class TestPartial extends AbstractCheck
+{
+    static final int SCRIPTS = 5000;
+
+    public TestPartial()
+    {
+        super(23);
+    }
+
+    static String
+    evaluate(CompiledProgram program, VE ve)
+    {
+        Test3Verbs.Test3State state = new Test3Verbs.Test3State(ve);
+        try {
+            program.evaluate(state);
+            return state.toString();
+        } catch (VEException e) {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    public int
+    test()
+        throws Exception
+    {
+        VE ve = quiet(configure());
+        PartialEvaluator.Target target = Test3Verbs.getTarget(ve);
+        for(int t = 0;t < SCRIPTS;t++) {
+            String script = script(5, 4);
+            VEParser parser = new VEParser(ve);
+            parser.parse(script);
+            ActionList program = parser.getProgram();
+            CompiledProgram plain = new CompiledProgram(program, ve.getVerbs());
+            CompiledProgram folded = new CompiledProgram(program, ve.getVerbs(), target);
+            compare("folded output", script, evaluate(plain, ve), evaluate(folded, ve));
+            compare("no more actions", script, "true",
+                Boolean.toString(folded.getActionCount() <= plain.getActionCount()));
+        }
+        return finish();
+    }
+
+    static public void main(String[] argv)
+    {
+        int exitcode = 0;
+        try {
+            exitcode = new TestPartial().test();
+        } catch (Exception e) {
+            report(e);
+            exitcode = 1;
+        }
+        System.exit(exitcode);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Check that a VerbTable can be built for verb names that
+ * collide under a plain polynomial string hash, e.g. "an" and
+ * "c0", and for a verb set too large for a perfect hash, and
+ * that it then finds every verb, in any case, and nothing else.
+ */
+
+public class TestVerbTable extends AbstractCheck
+{
+    static final int BIG = 3000; // names in the large verb set
+
+    static class NamedVerb extends Verb
+    {
+        NamedVerb(String name)
+            throws VEException
+        {
+            super(name);
+        }
+
+        public void
+        evaluate(ArgList args, Object state)
+        {
+        }
+    }
+
+    public TestVerbTable()
+    {
+        super(9);
+    }
+
+    /**
+     * Build a table of the given names and look each one up,
+     * as written, in upper case, and inside a longer text,
+     * along with a name that is not in the table.
+     */
+    public void
+    check(String what, String[] names)
+        throws VEException
+    {
+        Map<String, Verb> verbs = new HashMap<>();
+        for(String name : names)
+            verbs.put(name, new NamedVerb(name));
+        VerbTable table = new VerbTable(verbs);
+        for(String name : names) {
+            Verb verb = verbs.get(name);
+            compare(what, name, "true", Boolean.toString(table.lookup(name) == verb));
+            compare(what, name, "true", Boolean.toString(table.lookup(name.toUpperCase()) == verb));
+            String text = "<" + name + ">";
+            compare(what, name, "true", Boolean.toString(table.lookup(text, 1, text.length() - 1) == verb));
+            compare(what, name, "null", String.valueOf(table.lookup(name + "x")));
+        }
+    }
+
+    public int
+    test()
+        throws Exception
+    {
+        check("colliding pair", new String[]{"an", "c0"});
+        // Every concatenation of "an" and "c0" collides with the others
+        String[] names = new String[64];
+        for(int i = 0;i < names.length;i++) {
+            StringBuilder buf = new StringBuilder();
+            for(int bit = 0;bit < 6;bit++)
+                buf.append((i & (1 << bit)) == 0 ? "an" : "c0");
+            names[i] = buf.toString();
+        }
+        check("colliding names", names);
+        // Random names, too many for a perfect hash
+        names = new String[BIG];
+        for(int i = 0;i < BIG;i++) {
+            StringBuilder buf = new StringBuilder();
+            int len = 1 + random.nextInt(8);
+            for(int k = 0;k < len;k++)
+                buf.append((char) ('a' + random.nextInt(26)));
+            names[i] = buf.append(i).toString();
+        }
+        check("large verb set", names);
+        return finish();
+    }
+
+    static public void main(String[] argv)
+    {
+        int exitcode = 0;
+        try {
+            exitcode = new TestVerbTable().test();
+        } catch (Exception e) {
+            report(e);
+            exitcode = 1;
+        }
+        System.exit(exitcode);
+    }
+}
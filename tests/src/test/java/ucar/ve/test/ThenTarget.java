@@ -0,0 +1,45 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve.test;
+
+import ucar.ve.*;
+
+import static ucar.ve.Types.*;
+
+/**
+ * The PartialEvaluator.Target of the test verb sets. Their verbs
+ * are all pure, since they only append text to the state's
+ * buffer, so a folded run is replaced by a "then" of that text.
+ * Each verb set supplies its own empty state; see getTarget()
+ * in Test1Verbs, Test2Verbs and Test3Verbs.
+ */
+
+abstract public class ThenTarget implements PartialEvaluator.Target
+{
+    protected VE ve = null;
+
+    public ThenTarget(VE ve)
+    {
+        this.ve = ve;
+    }
+
+    abstract public Object newState();
+
+    public String fragment(Object state)
+    {
+        return state.toString();
+    }
+
+    public Action emit(String fragment)
+        throws VEException
+    {
+        Action action = new Action(ve.getVerbs().get("then"));
+        ArgList args = new ArgList(1);
+        args.add(new Arg(ArgType.STRING, fragment));
+        action.setArgs(args);
+        return action;
+    }
+}
@@ -0,0 +1,383 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import static ucar.ve.Types.*;
+
+/**
+ * A bound program numbered as FlatProgram describes, read through
+ * the int accessors below from wherever a subclass keeps it: Java
+ * arrays in FlatProgram, a direct buffer in OffHeapProgram. The
+ * evaluation views and the expansion back into an ActionList are
+ * written once here, over those accessors.
+ * The distinct non-block args are numbered constants, read with
+ * constant(); FlatProgram keeps them as Arg objects, OffHeapProgram
+ * as UTF-8 text in its buffer.
+ * Every use of the storage is bracketed by acquire() and release(),
+ * so that a subclass can refuse it once the storage is released.
+ */
+
+abstract public class AbstractFlatProgram
+{
+    //////////////////////////////////////////////////
+    // Constants
+
+    static final int BLOCK = ArgType.BLOCK.ordinal();
+
+    //////////////////////////////////////////////////
+    // Types
+
+    /**
+     * The per-evaluation state: one FlatArgs per block nesting
+     * depth, reused by every action at that depth, and the
+     * block arguments made so far, one per block.
+     */
+    static public class Evaluator
+    {
+        protected AbstractFlatProgram program = null;
+        protected List<FlatArgs> views = new ArrayList<>();
+        protected Arg[] blocks = null; // by block number; made on first use
+        protected int depth = 0;
+
+        public Evaluator(AbstractFlatProgram program)
+        {
+            this.program = program;
+        }
+
+        /**
+         * Run block b. At depth 0 this is the program or a block
+         * run after the evaluation that made it, so the storage
+         * is acquired; deeper calls run inside such a call.
+         */
+        public void
+        evaluate(int block, Object state)
+            throws VEException
+        {
+            if(depth == 0)
+                program.acquire();
+            try {
+                run(block, state);
+            } finally {
+                if(depth == 0)
+                    program.release();
+            }
+        }
+
+        protected void
+        run(int block, Object state)
+            throws VEException
+        {
+            if(depth == views.size())
+                views.add(new FlatArgs(this));
+            FlatArgs args = views.get(depth);
+            depth++;
+            try {
+                AbstractFlatProgram p = this.program;
+                int end = p.blockstart(block + 1);
+                for(int i = p.blockstart(block);i < end;i++) {
+                    args.load(i);
+                    p.verbs[p.op(i)].evaluate(args, state);
+                }
+            } finally {
+                depth--;
+            }
+        }
+
+        /**
+         * @return the argument for block b, a FlatBlock
+         */
+        protected Arg
+        block(int b)
+        {
+            if(blocks == null)
+                blocks = new Arg[program.getBlockCount()];
+            Arg arg = blocks[b];
+            if(arg == null)
+                arg = blocks[b] = new Arg(ArgType.BLOCK, new FlatBlock(this, b));
+            return arg;
+        }
+    }
+
+    /**
+     * The args of one action. It is refilled before each action
+     * with the shared Arg objects, so it is an ordinary ArgList
+     * that does not allocate.
+     */
+    static public class FlatArgs extends ArgList
+    {
+        static private final long serialVersionUID = 1L;
+
+        protected Evaluator evaluator = null;
+
+        public FlatArgs(Evaluator evaluator)
+        {
+            super(4);
+            this.evaluator = evaluator;
+        }
+
+        protected void
+        load(int action)
+        {
+            clear();
+            AbstractFlatProgram p = evaluator.program;
+            int end = p.argstart(action + 1);
+            for(int a = p.argstart(action);a < end;a++) {
+                if(p.argtype(a) == BLOCK)
+                    add(evaluator.block(p.argvalue(a)));
+                else
+                    add(p.constant(p.argvalue(a)));
+            }
+        }
+    }
+
+    /**
+     * A block argument during evaluation; evaluate() runs the
+     * block in place. It is read only: the List methods read a
+     * copy of the block, built with toActionList() on first use,
+     * and the methods that would change it throw. If the storage
+     * has been released by then, the VEException from acquire()
+     * is thrown wrapped in an IllegalStateException.
+     */
+    static public class FlatBlock extends ActionList
+    {
+        static private final long serialVersionUID = 1L;
+
+        protected Evaluator evaluator = null;
+        protected int block = 0;
+        protected List<Action> expanded = null;
+
+        public FlatBlock(Evaluator evaluator, int block)
+        {
+            this.evaluator = evaluator;
+            this.block = block;
+        }
+
+        public void
+        evaluate(Object state, VE ve)
+            throws VEException
+        {
+            evaluator.evaluate(this.block, state);
+        }
+
+        protected List<Action>
+        expand()
+        {
+            if(expanded == null) {
+                AbstractFlatProgram p = evaluator.program;
+                try {
+                    p.acquire();
+                } catch (VEException e) {
+                    throw new IllegalStateException(e);
+                }
+                try {
+                    expanded = Collections.unmodifiableList(p.expand(this.block));
+                } finally {
+                    p.release();
+                }
+            }
+            return expanded;
+        }
+
+        // Reads
+        public int size() {return expand().size();}
+        public boolean isEmpty() {return expand().isEmpty();}
+        public boolean contains(Object o) {return expand().contains(o);}
+        public boolean containsAll(Collection<?> c) {return expand().containsAll(c);}
+        public int indexOf(Object o) {return expand().indexOf(o);}
+        public int lastIndexOf(Object o) {return expand().lastIndexOf(o);}
+        public Action get(int index) {return expand().get(index);}
+        public Object[] toArray() {return expand().toArray();}
+        public <T> T[] toArray(T[] a) {return expand().toArray(a);}
+        public Iterator<Action> iterator() {return expand().iterator();}
+        public ListIterator<Action> listIterator() {return expand().listIterator();}
+        public ListIterator<Action> listIterator(int index) {return expand().listIterator(index);}
+        public List<Action> subList(int from, int to) {return expand().subList(from, to);}
+        public Spliterator<Action> spliterator() {return expand().spliterator();}
+        public void forEach(Consumer<? super Action> action) {expand().forEach(action);}
+        public boolean equals(Object o) {return o == this || expand().equals(o);}
+        public int hashCode() {return expand().hashCode();}
+
+        // Changes
+        public ActionList addAction(Action x) {throw readonly();}
+        public boolean add(Action x) {throw readonly();}
+        public void add(int index, Action x) {throw readonly();}
+        public boolean addAll(Collection<? extends Action> c) {throw readonly();}
+        public boolean addAll(int index, Collection<? extends Action> c) {throw readonly();}
+        public Action set(int index, Action x) {throw readonly();}
+        public Action remove(int index) {throw readonly();}
+        public boolean remove(Object o) {throw readonly();}
+        public boolean removeAll(Collection<?> c) {throw readonly();}
+        public boolean retainAll(Collection<?> c) {throw readonly();}
+        public boolean removeIf(Predicate<? super Action> filter) {throw readonly();}
+        public void replaceAll(UnaryOperator<Action> op) {throw readonly();}
+        public void sort(Comparator<? super Action> c) {throw readonly();}
+        public void clear() {throw readonly();}
+
+        protected UnsupportedOperationException
+        readonly()
+        {
+            return new UnsupportedOperationException("FlatBlock is read only");
+        }
+    }
+
+    //////////////////////////////////////////////////
+    // Instance variables
+
+    protected Verb[] verbs = null;
+
+    //////////////////////////////////////////////////
+    // Storage; see FlatProgram for what each one holds
+
+    /**
+     * @return the index into verbs of action i
+     */
+    abstract protected int op(int i);
+
+    /**
+     * @return the number of the first arg of action i; the
+     * args of action i are argstart(i)..argstart(i+1)
+     */
+    abstract protected int argstart(int i);
+
+    /**
+     * @return the packed position of action i, or Action.NOPOS
+     */
+    abstract protected long position(int i);
+
+    /**
+     * @return the ArgType ordinal of arg a
+     */
+    abstract protected int argtype(int a);
+
+    /**
+     * @return the constant number of arg a, or
+     * its block number if it is a block
+     */
+    abstract protected int argvalue(int a);
+
+    /**
+     * @return the number of the first action of block b; the
+     * actions of block b are blockstart(b)..blockstart(b+1)
+     */
+    abstract protected int blockstart(int b);
+
+    /**
+     * @return constant c, as an Arg that may be shared
+     */
+    abstract protected Arg constant(int c);
+
+    /**
+     * Start a use of the storage.
+     *
+     * @throws VEException if it has been released
+     */
+    protected void
+    acquire()
+        throws VEException
+    {
+    }
+
+    /**
+     * End a use of the storage started by acquire().
+     */
+    protected void
+    release()
+    {
+    }
+
+    //////////////////////////////////////////////////
+    // Accessors
+
+    abstract public int getActionCount();
+
+    abstract public int getBlockCount();
+
+    //////////////////////////////////////////////////
+    // API
+
+    public void
+    evaluate(Object state)
+        throws VEException
+    {
+        new Evaluator(this).evaluate(0, state);
+    }
+
+    /**
+     * @return the program as an ActionList of new Actions
+     */
+    public ActionList
+    toActionList()
+        throws VEException
+    {
+        acquire();
+        try {
+            return expand(0);
+        } finally {
+            release();
+        }
+    }
+
+    //////////////////////////////////////////////////
+    // Utilities
+
+    /**
+     * Build block b and the blocks nested in it. Those blocks are
+     * listed breadth first, which lists them in increasing order,
+     * and built last to first, so children are built before their
+     * parents and no recursion is needed.
+     */
+    protected ActionList
+    expand(int b)
+    {
+        int[] order = new int[]{b};
+        int n = 1;
+        for(int k = 0;k < n;k++) {
+            int end = blockstart(order[k] + 1);
+            for(int i = blockstart(order[k]);i < end;i++) {
+                for(int a = argstart(i);a < argstart(i + 1);a++) {
+                    if(argtype(a) != BLOCK)
+                        continue;
+                    if(n == order.length)
+                        order = Arrays.copyOf(order, 2 * n);
+                    order[n++] = argvalue(a);
+                }
+            }
+        }
+        ActionList[] built = new ActionList[n];
+        for(int k = n - 1;k >= 0;k--) {
+            ActionList block = new ActionList();
+            int end = blockstart(order[k] + 1);
+            for(int i = blockstart(order[k]);i < end;i++) {
+                Action action = new Action(verbs[op(i)]);
+                action.setPackedPosition(position(i));
+                ArgList args = new ArgList(argstart(i + 1) - argstart(i));
+                for(int a = argstart(i);a < argstart(i + 1);a++) {
+                    if(argtype(a) == BLOCK)
+                        args.add(new Arg(ArgType.BLOCK, built[Arrays.binarySearch(order, k + 1, n, argvalue(a))]));
+                    else
+                        args.add(constant(argvalue(a)));
+                }
+                action.setArgs(args);
+                block.add(action);
+            }
+            built[k] = block;
+        }
+        return built[0];
+    }
+}
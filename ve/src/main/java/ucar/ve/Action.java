@@ -11,15 +11,41 @@ import static ucar.ve.Types.*;
 
 public class Action
 {
+    /**
+     * No position; see pack().
+     */
+    static final public long NOPOS = Long.MIN_VALUE;
+
     public Verb verb;
+    public String name = null; // verb name as written; only kept while unbound
     public ArgList args = null;
-    Position pos = null;
+    // Line and char packed into one long rather than a Position
+    // object per action; only error reporting reads it.
+    long pos = NOPOS;
 
     public Action(Verb verb)
     {
         this.verb = verb;
     }
 
+    /**
+     * An unbound action: the verb is resolved later by a Binder.
+     */
+    public Action(String name)
+    {
+        this.name = name;
+    }
+
+    public boolean isBound()
+    {
+        return this.verb != null;
+    }
+
+    public String getName()
+    {
+        return (this.verb != null ? this.verb.getName() : this.name);
+    }
+
     public void setArgs(ArgList args)
     {
         this.args = args;
@@ -37,14 +63,52 @@ public class Action
 
     public void setPosition(Position pos)
     {
-        this.pos = new Position(pos);
+        this.pos = (pos == null ? NOPOS : pack(pos.lineno, pos.charno));
+    }
+
+    public void setPosition(int lineno, int charno)
+    {
+        this.pos = pack(lineno, charno);
     }
 
+    /**
+     * @return a new Position, or null if there is none
+     */
     public Position getPosition()
+    {
+        return (this.pos == NOPOS ? null : new Position(lineno(this.pos), charno(this.pos)));
+    }
+
+    public boolean hasPosition()
+    {
+        return this.pos != NOPOS;
+    }
+
+    public long getPackedPosition()
     {
         return this.pos;
     }
 
+    public void setPackedPosition(long pos)
+    {
+        this.pos = pos;
+    }
+
+    static public long pack(int lineno, int charno)
+    {
+        return ((long) lineno << 32) | (charno & 0xFFFFFFFFL);
+    }
+
+    static public int lineno(long pos)
+    {
+        return (int) (pos >> 32);
+    }
+
+    static public int charno(long pos)
+    {
+        return (int) pos;
+    }
+
     public void
     execute(Object state)
         throws VEException
@@ -56,7 +120,7 @@ public class Action
     toString()
     {
         StringBuilder buf = new StringBuilder();
-        buf.append(verb.getName());
+        buf.append(getName());
         buf.append("(");
         if(args != null)
             for(int i = 0;i < args.size();i++) {
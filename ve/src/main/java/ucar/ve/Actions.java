@@ -5,8 +5,8 @@ described in the file LICENSE.txt.
 
 package ucar.ve;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static ucar.ve.Types.*;
 
@@ -24,7 +24,7 @@ abstract public class Actions
      * https://github.com/VerbalExpressions/implementation
      */
 
-    static public Map<String, Verb> verbs = new HashMap<>();;
+    static public final Map<String, Verb> verbs = new ConcurrentHashMap<>();
 
     //////////////////////////////////////////////////
 
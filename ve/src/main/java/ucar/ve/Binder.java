@@ -0,0 +1,174 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Resolve the verbs of an unbound program (see VEParser.parseUnbound)
+ * against one verb table and check the argument signatures.
+ * The result is a new program; the input is not modified, so the
+ * same unbound program can be bound by any number of Binders.
+ * Non-block arguments are shared between the bound programs.
+ */
+
+public class Binder
+{
+    //////////////////////////////////////////////////
+    // Types
+
+    /**
+     * An action whose arguments are being bound,
+     * and the block argument, if any, in progress.
+     */
+    static protected class Frame
+    {
+        Action source = null;
+        Action action = null;
+        ArgList args = null;
+        int argindex = 0;
+        ActionList block = null;
+        ActionList bound = null;
+        int blockindex = 0;
+    }
+
+    //////////////////////////////////////////////////
+    // Instance variables
+
+    protected VerbTable verbs = null;
+
+    //////////////////////////////////////////////////
+    // Constructor(s)
+
+    public Binder(Map<String, Verb> verbs)
+    {
+        this(new VerbTable(verbs));
+    }
+
+    public Binder(VerbTable verbs)
+    {
+        this.verbs = verbs;
+    }
+
+    //////////////////////////////////////////////////
+    // API
+
+    public ActionList
+    bind(ActionList program)
+        throws VEException
+    {
+        ActionList actions = new ActionList();
+        for(int i = 0;i < program.size();i++)
+            actions.add(bind(program.get(i)));
+        return actions;
+    }
+
+    /**
+     * Bind one action and everything nested in it.
+     * Blocks are walked with an explicit stack, as in
+     * the parser, so depth is limited only by the heap.
+     */
+    public Action
+    bind(Action root)
+        throws VEException
+    {
+        List<Frame> stack = new ArrayList<>();
+        Frame top = frame(root);
+        for(;;) {
+            if(top.block != null) {
+                if(top.blockindex < top.block.size()) {
+                    stack.add(top);
+                    top = frame(top.block.get(top.blockindex++));
+                    continue;
+                }
+                top.args.add(new Arg(ArgType.BLOCK, top.bound));
+                top.block = null;
+                top.bound = null;
+            }
+            ArgList sourceargs = top.source.args;
+            if(sourceargs != null && top.argindex < sourceargs.size()) {
+                Arg arg = sourceargs.get(top.argindex++);
+                if(arg.type == ArgType.BLOCK) {
+                    top.block = arg.asBlock();
+                    top.bound = new ActionList();
+                    top.blockindex = 0;
+                } else
+                    top.args.add(arg);
+                continue;
+            }
+            check(top.action, top.args);
+            top.action.setArgs(top.args);
+            if(stack.isEmpty())
+                return top.action;
+            Action action = top.action;
+            top = stack.remove(stack.size() - 1);
+            top.bound.add(action);
+        }
+    }
+
+    //////////////////////////////////////////////////
+    // Utilities
+
+    protected Frame
+    frame(Action source)
+        throws VEException
+    {
+        String name = source.getName();
+        Verb verb = verbs.lookup(name);
+        if(verb == null) {
+            VEException vee = new VEException(String.format("Unknown verb: %s", name));
+            if(source.getPosition() != null)
+                vee.setPosition(source.getPosition());
+            throw vee;
+        }
+        Frame frame = new Frame();
+        frame.source = source;
+        frame.action = new Action(verb);
+        frame.action.setPackedPosition(source.getPackedPosition());
+        frame.args = new ArgList(frame.action.arity());
+        return frame;
+    }
+
+    /**
+     * Validate the arguments of a bound action
+     * against its verb signature.
+     */
+    static public void
+    check(Action action, ArgList args)
+        throws VEException
+    {
+        String msg = mismatch(action, args);
+        if(msg != null) {
+            VEException vee = new VEException(msg);
+            if(action.getPosition() != null)
+                vee.setPosition(action.getPosition());
+            throw vee;
+        }
+    }
+
+    /**
+     * @return a description of how args do not fit the
+     * signature of a bound action, or null if they do
+     */
+    static public String
+    mismatch(Action action, ArgList args)
+    {
+        List<ArgType> signature = action.getSignature();
+        if(signature.size() != args.size())
+            return "Mismatch in number of arguments";
+        for(int i = 0;i < signature.size();i++) {
+            ArgType at = signature.get(i);
+            Arg arg = args.get(i);
+            if(!Arg.compatible(arg.type, at))
+                return "Type mismatch for argument " + i;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static ucar.ve.Types.*;
+
+/**
+ * A bound program that is independent of the VE that compiled it
+ * and may be evaluated by any number of threads at once.
+ * <p>
+ * Thread safety: the program is kept as a FlatProgram, made
+ * when the CompiledProgram is constructed, with every lazily
+ * parsed block already parsed and every span replaced by a
+ * String, so nothing in it is written afterwards. It is held
+ * in final fields, so a CompiledProgram may be handed to other
+ * threads by any means, even a plain static field.
+ * Later changes to the VE, its verb map or its program do not
+ * affect it.
+ * <p>
+ * Each concurrent evaluation must have its own state object.
+ * The Verb objects are shared, so verbs must keep everything
+ * they change in that state (the verbs in this package and
+ * the test verbs all do). The ArgList and ActionList arguments
+ * verbs are handed are those of FlatProgram: read only, and
+ * not to be kept after the verb returns.
+ */
+
+public final class CompiledProgram
+{
+    //////////////////////////////////////////////////
+    // Instance variables
+
+    protected final FlatProgram program;
+    protected final Map<String, Verb> verbs;
+    protected final int nactions;
+    protected final long size;
+
+    //////////////////////////////////////////////////
+    // Constructor(s)
+
+    /**
+     * Compile the program of a VE.
+     */
+    public CompiledProgram(VE ve)
+        throws VEException
+    {
+        this(ve.getProgram(), ve.getVerbs());
+    }
+
+    /**
+     * Compile a bound program; blocks left unparsed
+     * by a lazy parse are parsed here.
+     *
+     * @param verbs the verbs the program is bound to
+     */
+    public CompiledProgram(ActionList program, Map<String, Verb> verbs)
+        throws VEException
+    {
+        this(program, verbs, null);
+    }
+
+    /**
+     * Compile a bound program, running its pure parts
+     * now; see PartialEvaluator.
+     *
+     * @param target the state of the verbs; null for none
+     */
+    public CompiledProgram(ActionList program, Map<String, Verb> verbs, PartialEvaluator.Target target)
+        throws VEException
+    {
+        if(program == null)
+            throw new VEException("CompiledProgram: no program");
+        // Flattening walks every block, which forces lazy blocks
+        // and rejects unbound actions, and shares nothing
+        // mutable with the original.
+        FlatProgram flat = new FlatProgram(program);
+        if(target != null) {
+            ActionList copy = flat.toActionList();
+            new PartialEvaluator(target).evaluate(copy);
+            flat = new FlatProgram(copy);
+        }
+        this.program = flat;
+        this.nactions = flat.getActionCount();
+        // Rough heap bytes: the per action, per arg and per block
+        // arrays, and an Arg and the text of each distinct constant.
+        long bytes = (flat.positions == null ? 8L : 16L) * nactions
+            + 5L * flat.argvalues.length + 4L * flat.getBlockCount();
+        for(Arg constant : flat.constants)
+            bytes += 40 + 2 * constant.asString().length();
+        this.size = bytes;
+        this.verbs = Collections.unmodifiableMap(new HashMap<>(verbs));
+    }
+
+    /**
+     * Parse the input of a configuration once and compile it.
+     */
+    static public CompiledProgram
+    compile(Configuration configuration)
+        throws VEException
+    {
+        return new CompiledProgram(new VE(configuration));
+    }
+
+    //////////////////////////////////////////////////
+    // Accessors
+
+    /**
+     * @return the verbs, read only
+     */
+    public Map<String, Verb>
+    getVerbs()
+    {
+        return this.verbs;
+    }
+
+    /**
+     * @return the number of actions, counting those in blocks
+     */
+    public int
+    getActionCount()
+    {
+        return this.nactions;
+    }
+
+    /**
+     * @return the approximate heap size of the program in bytes
+     */
+    public long
+    getSizeEstimate()
+    {
+        return this.size;
+    }
+
+    /**
+     * @return a copy of the program, which the caller may change;
+     * it is built afresh on each call, so evaluate() is cheaper
+     * when the program itself is not wanted
+     */
+    public ActionList
+    getProgram()
+    {
+        return this.program.toActionList();
+    }
+
+    //////////////////////////////////////////////////
+    // API
+
+    /**
+     * Evaluate the program against state; safe to call
+     * from several threads, each with its own state.
+     */
+    public void
+    evaluate(Object state)
+        throws VEException
+    {
+        this.program.evaluate(state);
+    }
+
+    public String
+    toString()
+    {
+        return this.program.toActionList().toString();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static ucar.ve.Types.*;
+
+/**
+ * The errors found in one script by VE.diagnose(),
+ * in the order in which they were found.
+ */
+
+public class Diagnostics
+{
+    //////////////////////////////////////////////////
+    // Types
+
+    static public class Diagnostic
+    {
+        public String message = null;
+        public Position pos = null; // null if unknown
+
+        public Diagnostic(String message, Position pos)
+        {
+            this.message = message;
+            this.pos = pos;
+        }
+
+        public String toString()
+        {
+            if(pos == null)
+                return message;
+            return pos.toString() + ": " + message;
+        }
+    }
+
+    //////////////////////////////////////////////////
+    // Instance variables
+
+    protected List<Diagnostic> diagnostics = new ArrayList<>();
+
+    //////////////////////////////////////////////////
+    // Accessors
+
+    public List<Diagnostic>
+    getDiagnostics()
+    {
+        return this.diagnostics;
+    }
+
+    public boolean
+    isEmpty()
+    {
+        return this.diagnostics.isEmpty();
+    }
+
+    public int
+    size()
+    {
+        return this.diagnostics.size();
+    }
+
+    //////////////////////////////////////////////////
+    // API
+
+    public void
+    add(String message, Position pos)
+    {
+        this.diagnostics.add(new Diagnostic(message, (pos == null ? null : new Position(pos))));
+    }
+
+    public void
+    add(VEException vee)
+    {
+        Position pos = null;
+        if(vee.getErrorLine() >= 0)
+            pos = new Position(vee.getErrorLine(), vee.getErrorChar());
+        String message = vee.getMessage();
+        if(message == null && vee.getCause() != null)
+            message = vee.getCause().toString();
+        this.diagnostics.add(new Diagnostic(message, pos));
+    }
+
+    public String
+    toString()
+    {
+        StringBuilder buf = new StringBuilder();
+        for(Diagnostic d : this.diagnostics)
+            buf.append(d.toString()).append('\n');
+        return buf.toString();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ucar.ve.Types.*;
+
+/**
+ * A bound program stored as arrays rather than as a tree of
+ * Action, ArgList, Arg and Position objects, for keeping many
+ * programs on the heap. Actions are numbered so that the actions
+ * of each block are contiguous; block 0 is the program itself and
+ * the blocks are numbered breadth first, so a block's children
+ * have larger numbers than it does.
+ * Evaluation hands each verb an ArgList (see FlatArgs) filled
+ * from the arrays with shared Arg objects decoded once, and a
+ * block argument is a FlatBlock, whose evaluate() runs its range
+ * of actions; the ArgLists are reused, so a verb must not keep
+ * them after it returns.
+ * The arrays are never modified after construction, so
+ * any number of threads may evaluate a program at once.
+ */
+
+public class FlatProgram extends AbstractFlatProgram
+{
+    //////////////////////////////////////////////////
+    // Instance variables
+
+    // Per action
+    protected int[] ops = null;      // index into verbs
+    protected int[] argstart = null; // args of action i are argstart[i]..argstart[i+1]
+    protected long[] positions = null; // packed, NOPOS if none; null if no action has one
+    // Per arg
+    protected byte[] argtypes = null;  // ArgType ordinal
+    protected int[] argvalues = null;  // index into constants, or a block number
+    // Per block: the actions of block b are blockstart[b]..blockstart[b+1]
+    protected int[] blockstart = null;
+    // Distinct non-block args, shared by every use
+    protected Arg[] constants = null;
+
+    //////////////////////////////////////////////////
+    // Constructor(s)
+
+    /**
+     * Flatten a bound program; blocks left unparsed by
+     * a lazy parse are parsed here.
+     */
+    public FlatProgram(ActionList program)
+        throws VEException
+    {
+        Map<Verb, Integer> verbindex = new HashMap<>();
+        List<Verb> verblist = new ArrayList<>();
+        Map<List<Object>, Integer> constindex = new HashMap<>();
+        List<Arg> constlist = new ArrayList<>();
+        List<ActionList> blocks = new ArrayList<>();
+        int nactions = 0;
+        int nargs = 0;
+        boolean anypositions = false;
+        // First pass: number the blocks breadth first and count
+        blocks.add(program);
+        for(int b = 0;b < blocks.size();b++) {
+            ActionList block = blocks.get(b);
+            for(int i = 0;i < block.size();i++) {
+                Action action = block.get(i);
+                if(!action.isBound())
+                    throw new VEException("Cannot flatten an unbound action: " + action.getName());
+                nactions++;
+                if(action.hasPosition())
+                    anypositions = true;
+                ArgList args = action.args;
+                int n = (args == null ? 0 : args.size());
+                nargs += n;
+                for(int j = 0;j < n;j++) {
+                    if(args.get(j).type == ArgType.BLOCK)
+                        blocks.add(args.getBlock(j));
+                }
+            }
+        }
+        this.ops = new int[nactions];
+        this.argstart = new int[nactions + 1];
+        this.argtypes = new byte[nargs];
+        this.argvalues = new int[nargs];
+        this.blockstart = new int[blocks.size() + 1];
+        if(anypositions)
+            this.positions = new long[nactions];
+        // Second pass: fill in the arrays in the same order
+        int action = 0;
+        int arg = 0;
+        int nextblock = 1;
+        for(int b = 0;b < blocks.size();b++) {
+            blockstart[b] = action;
+            ActionList block = blocks.get(b);
+            for(int i = 0;i < block.size();i++) {
+                Action a = block.get(i);
+                Integer v = verbindex.get(a.verb);
+                if(v == null) {
+                    v = verblist.size();
+                    verbindex.put(a.verb, v);
+                    verblist.add(a.verb);
+                }
+                ops[action] = v;
+                if(anypositions)
+                    this.positions[action] = a.getPackedPosition();
+                argstart[action] = arg;
+                ArgList args = a.args;
+                int n = (args == null ? 0 : args.size());
+                for(int j = 0;j < n;j++, arg++) {
+                    Arg x = args.get(j);
+                    argtypes[arg] = (byte) x.type.ordinal();
+                    if(x.type == ArgType.BLOCK)
+                        argvalues[arg] = nextblock++;
+                    else {
+                        // Spans are kept as Strings so that the
+                        // script text itself is not retained
+                        Object value = (x.value instanceof CharSequence ? x.value.toString() : x.value);
+                        List<Object> key = Arrays.asList(x.type, value);
+                        Integer c = constindex.get(key);
+                        if(c == null) {
+                            c = constlist.size();
+                            constindex.put(key, c);
+                            constlist.add(new Arg(x.type, value));
+                        }
+                        argvalues[arg] = c;
+                    }
+                }
+                action++;
+            }
+        }
+        argstart[action] = arg;
+        blockstart[blocks.size()] = action;
+        this.verbs = verblist.toArray(new Verb[0]);
+        this.constants = constlist.toArray(new Arg[0]);
+    }
+
+    //////////////////////////////////////////////////
+    // Storage
+
+    protected int
+    op(int i)
+    {
+        return ops[i];
+    }
+
+    protected int
+    argstart(int i)
+    {
+        return argstart[i];
+    }
+
+    protected long
+    position(int i)
+    {
+        return (positions == null ? Action.NOPOS : positions[i]);
+    }
+
+    protected int
+    argtype(int a)
+    {
+        return argtypes[a];
+    }
+
+    protected int
+    argvalue(int a)
+    {
+        return argvalues[a];
+    }
+
+    protected int
+    blockstart(int b)
+    {
+        return blockstart[b];
+    }
+
+    protected Arg
+    constant(int c)
+    {
+        return constants[c];
+    }
+
+    //////////////////////////////////////////////////
+    // Accessors
+
+    public int
+    getActionCount()
+    {
+        return ops.length;
+    }
+
+    public int
+    getBlockCount()
+    {
+        return blockstart.length - 1;
+    }
+
+    //////////////////////////////////////////////////
+    // API
+
+    public ActionList
+    toActionList()
+    {
+        return expand(0);
+    }
+}
@@ -0,0 +1,363 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static ucar.ve.Types.*;
+import static ucar.ve.VEParser.*;
+
+/**
+ * Re-parse a script after small edits without re-parsing all of it.
+ * <p>
+ * The text is kept as a sequence of segments, each running from one
+ * top-level action boundary (see VEParser.Splitter) to the next and
+ * each parsed on its own. An edit re-scans and re-parses the segments
+ * it touches, continuing only until a boundary lines up with an old one,
+ * after which the old segments and their Action objects are reused.
+ * Parsing work is therefore proportional to the size of the edit.
+ * What remains proportional to the script is bookkeeping: the text
+ * buffer splice, a pass over segment lengths, and, only when the edit
+ * changes the number of lines, bumping the line number of later actions.
+ * <p>
+ * Parse errors are kept per segment; edit() throws the first one
+ * but the edit is still applied, so a later edit can repair it.
+ * <p>
+ * With Configuration.intern, each segment is interned on its own,
+ * so equal blocks are shared only within a top-level action; an
+ * interner over the whole script would keep every block it had
+ * ever seen, and tie the positions of a shared block to whichever
+ * segment happened to be parsed first.
+ */
+
+public class IncrementalParser
+{
+    //////////////////////////////////////////////////
+    // Types
+
+    /**
+     * A piece of the text ending at a top-level boundary
+     * (or at the end of the text).
+     */
+    static protected class Segment
+    {
+        int length = 0;
+        int newlines = 0;     // number of '\n' in the segment
+        int lastnewline = -1; // offset of the last '\n' in the segment
+        ActionList actions = null;
+        VEException error = null;
+        boolean last = false; // splitter was done: nothing follows
+    }
+
+    //////////////////////////////////////////////////
+    // Instance variables
+
+    protected VEParser parser = null;
+    protected StringBuilder text = new StringBuilder();
+    protected List<Segment> segments = new ArrayList<>();
+    protected ActionList program = new ActionList();
+    protected int nerrors = 0; // segments with an error
+
+    //////////////////////////////////////////////////
+    // Constructor(s)
+
+    public IncrementalParser(VE ve)
+        throws VEException
+    {
+        this.parser = new VEParser(ve);
+    }
+
+    //////////////////////////////////////////////////
+    // Accessors
+
+    public ActionList
+    getProgram()
+    {
+        return this.program;
+    }
+
+    public String
+    getText()
+    {
+        return this.text.toString();
+    }
+
+    //////////////////////////////////////////////////
+    // API
+
+    /**
+     * Parse a complete script, replacing any previous one.
+     *
+     * @return the program
+     */
+    public ActionList
+    parse(CharSequence script)
+        throws VEException
+    {
+        this.text.setLength(0);
+        this.text.append(script);
+        this.segments.clear();
+        this.program = new ActionList();
+        List<Segment> fresh = new ArrayList<>();
+        rescan(0, 0, 0, -1, 0, 0, fresh);
+        this.segments.addAll(fresh);
+        this.nerrors = 0;
+        for(Segment seg : fresh) {
+            if(seg.actions != null)
+                this.program.addAll(seg.actions);
+            else
+                this.nerrors++;
+        }
+        check();
+        return this.program;
+    }
+
+    /**
+     * Apply an edit to the script and re-parse the affected
+     * top-level actions. The previous program is updated in
+     * place and returned; actions outside the edited region
+     * are the same objects as before, with their positions
+     * adjusted.
+     *
+     * @param previous the program returned by the last parse or edit
+     * @param offset   where the edit starts
+     * @param removed  number of chars removed at offset
+     * @param inserted text inserted at offset
+     * @return the updated program
+     */
+    public ActionList
+    edit(ActionList previous, int offset, int removed, CharSequence inserted)
+        throws VEException
+    {
+        if(previous != this.program)
+            throw new IllegalArgumentException("Not the current program of this parser");
+        if(offset < 0 || removed < 0 || offset + removed > text.length())
+            throw new IndexOutOfBoundsException("Edit outside the text");
+        if(inserted == null)
+            inserted = "";
+        int delta = inserted.length() - removed;
+        int oldend = offset + removed; // end of the edit in the old text
+
+        // Locate the first segment to re-parse: the one holding offset-1,
+        // since the edit may extend the action that ends there.
+        int first = 0;
+        int start = 0;       // its offset
+        int lineno = 0;      // newlines before it
+        int lastnewline = 0; // offset of the last of them, 0 if none
+        int index = 0;       // program index of its first action
+        int anchor = Math.max(0, offset - 1);
+        for(;first < segments.size();first++) {
+            Segment seg = segments.get(first);
+            if(start + seg.length > anchor || seg.last)
+                break;
+            if(seg.newlines > 0)
+                lastnewline = start + seg.lastnewline;
+            lineno += seg.newlines;
+            index += size(seg);
+            start += seg.length;
+        }
+
+        // Old facts needed to patch the positions of reused actions:
+        // the line on which the edit ends and where that line starts.
+        int endline = lineno + countnewlines(text, start, oldend);
+        int oldlinepos = lastnewline(text, oldend);
+
+        // Apply the edit to the text
+        int linedelta = countnewlines(inserted, 0, inserted.length())
+            - countnewlines(text, offset, oldend);
+        text.replace(offset, oldend, inserted.toString());
+        int newlinepos = lastnewline(text, offset + inserted.length());
+
+        // Re-parse until back in step with the old segments
+        List<Segment> fresh = new ArrayList<>();
+        int limit = rescan(start, lineno, lastnewline, first, oldend, delta, fresh);
+
+        // Splice the segments and the program
+        int removedactions = 0;
+        for(int i = first;i < limit;i++) {
+            Segment seg = segments.get(i);
+            removedactions += size(seg);
+            if(seg.error != null) nerrors--;
+        }
+        segments.subList(first, limit).clear();
+        segments.addAll(first, fresh);
+        ActionList replacement = new ActionList();
+        for(Segment seg : fresh) {
+            if(seg.actions != null)
+                replacement.addAll(seg.actions);
+            else
+                nerrors++;
+        }
+        program.subList(index, index + removedactions).clear();
+        program.addAll(index, replacement);
+
+        // Patch the positions of the reused actions (and errors): those on the
+        // line where the edit ended move along the line, and all
+        // of them move by linedelta lines.
+        int chardelta = delta - (newlinepos - oldlinepos);
+        if(chardelta != 0 || linedelta != 0) {
+            Set<ActionList> seen = Collections.newSetFromMap(new IdentityHashMap<ActionList, Boolean>());
+            for(int i = first + fresh.size();i < segments.size();i++) {
+                Segment seg = segments.get(i);
+                if(seg.actions != null)
+                    for(Action action : seg.actions)
+                        shift(action, endline, chardelta, linedelta, seen);
+                else if(seg.error.getErrorLine() >= 0) {
+                    VEException e = seg.error;
+                    int charno = e.getErrorChar()
+                        + (e.getErrorLine() == endline ? chardelta : 0);
+                    e.setPosition(e.getErrorLine() + linedelta, charno);
+                }
+                if(linedelta == 0 && seg.newlines > 0)
+                    break; // later lines are unaffected
+            }
+        }
+        check();
+        return this.program;
+    }
+
+    //////////////////////////////////////////////////
+    // Utilities
+
+    /**
+     * Split the text from start into segments and parse them into fresh.
+     * For an edit (first &gt;= 0), stop at the first boundary past the
+     * end of the edit that coincides with the end of an old segment.
+     *
+     * @param start       offset at which to start
+     * @param lineno      newlines before start
+     * @param lastnewline offset of the last of them, 0 if none
+     * @param first       index of the first old segment being replaced,
+     *                    or -1 for a complete parse
+     * @param oldend      end of the edit, in old offsets
+     * @param delta       change in text length made by the edit
+     * @return the index of the first old segment that is reused
+     */
+    protected int
+    rescan(int start, int lineno, int lastnewline,
+           int first, int oldend, int delta, List<Segment> fresh)
+    {
+        Splitter splitter = new Splitter();
+        int end = text.length();
+        int pos = start;
+        // Walk the old segment ends, in new offsets, in step with the scan
+        int oldindex = first;
+        int oldsegend = start;
+        for(;;) {
+            int b = splitter.next(text, pos, end);
+            boolean done = splitter.isDone();
+            if(b < 0)
+                b = end; // the rest of the text is one segment
+            Segment seg = new Segment();
+            seg.length = b - pos;
+            seg.last = (done || b == end);
+            String piece = text.substring(pos, b);
+            for(int i = 0;i < piece.length();i++) {
+                if(piece.charAt(i) == '\n') {
+                    seg.newlines++;
+                    seg.lastnewline = i;
+                }
+            }
+            seg.actions = new ActionList();
+            parser.interner = null; // one per segment; see above
+            try {
+                parser.lexer = new Lexer(new TextStream(piece, pos, lineno, lastnewline), parser);
+                parser.parseActions(seg.actions);
+            } catch (VEException vee) {
+                seg.actions = null;
+                seg.error = vee;
+            }
+            parser.lexer = null;
+            parser.interner = null;
+            fresh.add(seg);
+            if(seg.newlines > 0)
+                lastnewline = pos + seg.lastnewline;
+            lineno += seg.newlines;
+            pos = b;
+            if(seg.last)
+                return segments.size(); // nothing old survives
+            if(first >= 0 && pos - delta >= oldend) {
+                while(oldindex < segments.size() && oldsegend + delta < pos)
+                    oldsegend += segments.get(oldindex++).length;
+                if(oldsegend + delta == pos && oldindex < segments.size())
+                    return oldindex; // back in step with the old segments
+            }
+        }
+    }
+
+    /**
+     * Move the position of an action and everything nested in it.
+     * A block shared by several actions (see ProgramInterner)
+     * holds one set of positions, so it is moved once;
+     * seen holds the blocks already moved.
+     */
+    static protected void
+    shift(Action root, int line, int chardelta, int linedelta, Set<ActionList> seen)
+    {
+        List<Action> work = new ArrayList<>();
+        work.add(root);
+        while(!work.isEmpty()) {
+            Action action = work.remove(work.size() - 1);
+            if(action.hasPosition()) {
+                long pos = action.getPackedPosition();
+                int charno = Action.charno(pos);
+                if(Action.lineno(pos) == line)
+                    charno += chardelta;
+                action.setPosition(Action.lineno(pos) + linedelta, charno);
+            }
+            if(action.args == null)
+                continue;
+            for(Arg arg : action.args)
+                if(arg.type == ArgType.BLOCK && seen.add(arg.asBlock()))
+                    work.addAll(arg.asBlock());
+        }
+    }
+
+    static protected int
+    size(Segment seg)
+    {
+        return (seg.actions == null ? 0 : seg.actions.size());
+    }
+
+    static protected int
+    countnewlines(CharSequence s, int from, int to)
+    {
+        int n = 0;
+        for(int i = from;i < to;i++)
+            if(s.charAt(i) == '\n') n++;
+        return n;
+    }
+
+    /**
+     * @return the offset of the last newline before pos, or 0 if none;
+     * this is the origin of char numbers in a Position.
+     */
+    static protected int
+    lastnewline(CharSequence s, int pos)
+    {
+        for(int i = pos - 1;i >= 0;i--)
+            if(s.charAt(i) == '\n') return i;
+        return 0;
+    }
+
+    /**
+     * Throw the first error in any segment.
+     */
+    protected void
+    check()
+        throws VEException
+    {
+        if(nerrors == 0)
+            return;
+        for(Segment seg : segments)
+            if(seg.error != null)
+                throw seg.error;
+    }
+}
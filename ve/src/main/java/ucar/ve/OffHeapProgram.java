@@ -0,0 +1,402 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static ucar.ve.Types.*;
+
+/**
+ * A bound program stored outside the Java heap, in a direct
+ * ByteBuffer, so that keeping many large programs adds little
+ * for the garbage collector to trace: only the Verb table and
+ * a bounded cache of decoded constants stay on the heap.
+ * The layout is that of FlatProgram, with every array a section
+ * of the buffer; constants are kept as a pool of UTF-8 strings
+ * with their ArgType, decoded on first use into a cache of at
+ * most MAXCACHED Args. Evaluation reads the buffer in place
+ * through the views of AbstractFlatProgram; a verb must not keep
+ * them after it returns, and any number of threads may evaluate
+ * a program at once.
+ * <p>
+ * A program is released with close() (or by closing the Arena
+ * that created it), after which it cannot be used. The memory is
+ * freed as soon as no evaluation is using it, with the cleaner
+ * of the buffer: sun.misc.Unsafe.invokeCleaner() on Java 9 and
+ * later, the buffer's own cleaner() on Java 8. If neither can be
+ * reached, e.g. under a security manager, the memory is freed
+ * when the garbage collector finds the buffer unreachable;
+ * isFreed() tells which happened.
+ */
+
+public class OffHeapProgram extends AbstractFlatProgram implements Closeable
+{
+    //////////////////////////////////////////////////
+    // Constants
+
+    static final int MAXCACHED = 1024; // decoded constants kept per program
+
+    static final ArgType[] ARGTYPES = ArgType.values();
+
+    //////////////////////////////////////////////////
+    // Types
+
+    /**
+     * The owner of a set of programs, which are all
+     * released together when it is closed.
+     */
+    static public class Arena implements Closeable
+    {
+        protected List<OffHeapProgram> programs = new ArrayList<>();
+        protected boolean closed = false;
+
+        public synchronized OffHeapProgram
+        allocate(ActionList program)
+            throws VEException
+        {
+            if(closed)
+                throw new VEException("Arena is closed");
+            OffHeapProgram p = new OffHeapProgram(program);
+            programs.add(p);
+            return p;
+        }
+
+        public synchronized void
+        close()
+        {
+            for(OffHeapProgram p : programs)
+                p.close();
+            programs.clear();
+            closed = true;
+        }
+    }
+
+    /**
+     * A decoded constant in the cache, with its number, since
+     * the cache slot of a constant is its number modulo the
+     * cache size. The fields are final, so a Decoded read from
+     * the cache by another thread is always complete.
+     */
+    static protected class Decoded
+    {
+        protected final int index;
+        protected final Arg arg;
+
+        protected Decoded(int index, Arg arg)
+        {
+            this.index = index;
+            this.arg = arg;
+        }
+    }
+
+    //////////////////////////////////////////////////
+    // Instance variables
+
+    protected ByteBuffer buffer = null; // null once freed
+    protected long size = 0;
+    protected int nactions = 0;
+    protected int nblocks = 0;
+    protected int nconstants = 0;
+    protected boolean positions = false;
+    // Byte offsets of the sections of the buffer;
+    // see FlatProgram for what each one holds
+    protected int packed = 0;     // long per action, if positions
+    protected int ops = 0;        // int per action
+    protected int argstart = 0;   // int per action, plus one
+    protected int argvalues = 0;  // int per arg
+    protected int blockstart = 0; // int per block, plus one
+    protected int conststart = 0; // int per constant, plus one: offsets into the pool
+    protected int argtypes = 0;   // byte per arg
+    protected int consttypes = 0; // byte per constant
+    protected int pool = 0;       // the UTF-8 text of the constants
+    // Decoded constants; slots are filled without a lock, which
+    // at worst decodes a constant twice
+    protected Decoded[] cache = null;
+    // Evaluations and expansions using the buffer; it is
+    // freed when the program is closed and this is 0
+    protected int users = 0;
+    protected boolean closed = false;
+    protected boolean freed = false; // by the cleaner, not left to GC
+
+    //////////////////////////////////////////////////
+    // Constructor(s)
+
+    /**
+     * Copy a bound program out of the heap; blocks left
+     * unparsed by a lazy parse are parsed here.
+     */
+    public OffHeapProgram(ActionList program)
+        throws VEException
+    {
+        this(new FlatProgram(program));
+    }
+
+    public OffHeapProgram(FlatProgram flat)
+    {
+        this.verbs = flat.verbs;
+        this.nactions = flat.ops.length;
+        this.nblocks = flat.blockstart.length - 1;
+        this.nconstants = flat.constants.length;
+        this.positions = (flat.positions != null);
+        int nargs = flat.argtypes.length;
+        byte[][] text = new byte[nconstants][];
+        int poolsize = 0;
+        for(int c = 0;c < nconstants;c++) {
+            Object value = flat.constants[c].value;
+            text[c] = (value == null ? new byte[0] : value.toString().getBytes(Util.UTF8));
+            poolsize += text[c].length;
+        }
+        // The long section, then the int sections, so that they are aligned
+        int offset = 0;
+        if(positions) {
+            this.packed = offset;
+            offset += 8 * nactions;
+        }
+        this.ops = offset;
+        offset += 4 * nactions;
+        this.argstart = offset;
+        offset += 4 * (nactions + 1);
+        this.argvalues = offset;
+        offset += 4 * nargs;
+        this.blockstart = offset;
+        offset += 4 * (nblocks + 1);
+        this.conststart = offset;
+        offset += 4 * (nconstants + 1);
+        this.argtypes = offset;
+        offset += nargs;
+        this.consttypes = offset;
+        offset += nconstants;
+        this.pool = offset;
+        offset += poolsize;
+        ByteBuffer buf = ByteBuffer.allocateDirect(Math.max(offset, 1)).order(ByteOrder.nativeOrder());
+        if(positions) {
+            for(int i = 0;i < nactions;i++)
+                buf.putLong(packed + 8 * i, flat.positions[i]);
+        }
+        for(int i = 0;i < nactions;i++)
+            buf.putInt(ops + 4 * i, flat.ops[i]);
+        for(int i = 0;i <= nactions;i++)
+            buf.putInt(argstart + 4 * i, flat.argstart[i]);
+        for(int a = 0;a < nargs;a++) {
+            buf.putInt(argvalues + 4 * a, flat.argvalues[a]);
+            buf.put(argtypes + a, flat.argtypes[a]);
+        }
+        for(int b = 0;b <= nblocks;b++)
+            buf.putInt(blockstart + 4 * b, flat.blockstart[b]);
+        int next = 0;
+        for(int c = 0;c < nconstants;c++) {
+            buf.putInt(conststart + 4 * c, next);
+            buf.put(consttypes + c, (byte) flat.constants[c].type.ordinal());
+            for(int k = 0;k < text[c].length;k++)
+                buf.put(pool + next + k, text[c][k]);
+            next += text[c].length;
+        }
+        buf.putInt(conststart + 4 * nconstants, next);
+        int cachesize = 1;
+        while(cachesize < Math.min(nconstants, MAXCACHED))
+            cachesize <<= 1;
+        this.cache = new Decoded[cachesize];
+        this.buffer = buf;
+        this.size = buf.capacity();
+    }
+
+    //////////////////////////////////////////////////
+    // Storage
+
+    protected int
+    op(int i)
+    {
+        return buffer.getInt(ops + 4 * i);
+    }
+
+    protected int
+    argstart(int i)
+    {
+        return buffer.getInt(argstart + 4 * i);
+    }
+
+    protected long
+    position(int i)
+    {
+        return (positions ? buffer.getLong(packed + 8 * i) : Action.NOPOS);
+    }
+
+    protected int
+    argtype(int a)
+    {
+        return buffer.get(argtypes + a);
+    }
+
+    protected int
+    argvalue(int a)
+    {
+        return buffer.getInt(argvalues + 4 * a);
+    }
+
+    protected int
+    blockstart(int b)
+    {
+        return buffer.getInt(blockstart + 4 * b);
+    }
+
+    protected Arg
+    constant(int c)
+    {
+        Decoded[] cache = this.cache;
+        int slot = c & (cache.length - 1);
+        Decoded d = cache[slot];
+        if(d == null || d.index != c)
+            cache[slot] = d = new Decoded(c, decode(c));
+        return d.arg;
+    }
+
+    //////////////////////////////////////////////////
+    // Accessors
+
+    public int
+    getActionCount()
+    {
+        return this.nactions;
+    }
+
+    public int
+    getBlockCount()
+    {
+        return this.nblocks;
+    }
+
+    /**
+     * @return the bytes held outside the heap, or 0 once freed;
+     * a closed program whose buffer is left to the garbage
+     * collector still counts
+     */
+    public synchronized long
+    getByteSize()
+    {
+        return (freed ? 0 : this.size);
+    }
+
+    public synchronized boolean
+    isClosed()
+    {
+        return this.closed;
+    }
+
+    /**
+     * @return true if the memory has been returned, which
+     * happens after close() once no evaluation is using it
+     * and only if the buffer's cleaner could be called
+     */
+    public synchronized boolean
+    isFreed()
+    {
+        return this.freed;
+    }
+
+    //////////////////////////////////////////////////
+    // API
+
+    /**
+     * Release the program; later use fails. The memory is freed
+     * now, or when the evaluations in progress finish.
+     */
+    public synchronized void
+    close()
+    {
+        closed = true;
+        if(users == 0)
+            free();
+    }
+
+    //////////////////////////////////////////////////
+    // Utilities
+
+    protected synchronized void
+    acquire()
+        throws VEException
+    {
+        if(closed)
+            throw new VEException("OffHeapProgram is closed");
+        users++;
+    }
+
+    protected synchronized void
+    release()
+    {
+        users--;
+        if(closed && users == 0)
+            free();
+    }
+
+    /**
+     * Free the buffer; the caller holds the lock.
+     */
+    protected void
+    free()
+    {
+        ByteBuffer buf = this.buffer;
+        if(buf == null)
+            return;
+        this.buffer = null; // later reads fail rather than read freed memory
+        Arrays.fill(this.cache, null);
+        this.freed = clean(buf);
+    }
+
+    /**
+     * Decode constant c from the pool.
+     */
+    protected Arg
+    decode(int c)
+    {
+        ByteBuffer buf = this.buffer;
+        int start = buf.getInt(conststart + 4 * c);
+        int len = buf.getInt(conststart + 4 * (c + 1)) - start;
+        byte[] bytes = new byte[len];
+        for(int k = 0;k < len;k++)
+            bytes[k] = buf.get(pool + start + k);
+        return new Arg(ARGTYPES[buf.get(consttypes + c)], new String(bytes, Util.UTF8));
+    }
+
+    /**
+     * Free the memory of a direct buffer now, if the JVM lets us;
+     * else it is left for the garbage collector.
+     *
+     * @return true if it was freed
+     */
+    static protected boolean
+    clean(ByteBuffer buf)
+    {
+        try {
+            // Java 9 and later
+            Class<?> unsafeclass = Class.forName("sun.misc.Unsafe");
+            Method invoke = unsafeclass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeclass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            invoke.invoke(field.get(null), buf);
+            return true;
+        } catch (NoSuchMethodException e) {
+            // Java 8: DirectByteBuffer.cleaner().clean()
+            try {
+                Method cleaner = buf.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object c = cleaner.invoke(buf);
+                c.getClass().getMethod("clean").invoke(c);
+                return true;
+            } catch (Exception | LinkageError e8) {
+                return false;
+            }
+        } catch (Exception | LinkageError e) {
+            return false;
+        }
+    }
+}
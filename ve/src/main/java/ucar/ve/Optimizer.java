@@ -0,0 +1,257 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static ucar.ve.Types.*;
+
+/**
+ * A peephole pass over a bound program. Each verb declares the
+ * rewrite rules that apply to its actions (Verb.addRewrite());
+ * the pass tries the rules of each action in turn, replacing a run
+ * of actions starting at it with fewer ones, and repeats over
+ * every block, nested blocks included, until no rule applies.
+ * A rule must leave the output of the program unchanged; it is
+ * the verb's knowledge of what it does that makes a rule valid,
+ * which is why the verb declares it.
+ * Blocks left unparsed by a lazy parse are parsed by the pass.
+ * The program is changed in place; the ActionList of each
+ * block keeps its identity.
+ */
+
+public class Optimizer
+{
+    //////////////////////////////////////////////////
+    // Constants
+
+    static final int MAXPASSES = 100; // per block; a guard against rules that never settle
+
+    //////////////////////////////////////////////////
+    // Types
+
+    /**
+     * A rewrite rule for the action at in.get(index).
+     */
+    static public interface Rewrite
+    {
+        /**
+         * If the rule applies, append the replacement for a run of
+         * actions starting at index to out.
+         *
+         * @return the number of actions of in that were replaced,
+         * or 0 (with nothing appended) if the rule does not apply;
+         * a rule that applies must change the program
+         */
+        public int apply(ActionList in, int index, ActionList out) throws VEException;
+    }
+
+    /**
+     * Remove the action: for verbs that do nothing.
+     */
+    static public class Drop implements Rewrite
+    {
+        public int
+        apply(ActionList in, int index, ActionList out)
+        {
+            return 1;
+        }
+    }
+
+    /**
+     * Replace a run of identical actions (same verb and args)
+     * with the first: for verbs whose effect is the same
+     * however many times they are repeated.
+     */
+    static public class Collapse implements Rewrite
+    {
+        public int
+        apply(ActionList in, int index, ActionList out)
+        {
+            Action first = in.get(index);
+            int end = index + 1;
+            while(end < in.size() && same(first, in.get(end)))
+                end++;
+            if(end == index + 1)
+                return 0;
+            out.add(first);
+            return end - index;
+        }
+
+        protected boolean
+        same(Action a, Action b)
+        {
+            if(a.verb != b.verb)
+                return false;
+            int n = (a.args == null ? 0 : a.args.size());
+            if(n != (b.args == null ? 0 : b.args.size()))
+                return false;
+            for(int i = 0;i < n;i++) {
+                Arg x = a.args.get(i);
+                Arg y = b.args.get(i);
+                if(x.type != y.type || x.type == ArgType.BLOCK
+                    || !x.asString().equals(y.asString()))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Append the string args of a run of following actions to
+     * the last arg of this one, for verbs whose last arg is
+     * literal text that the following verbs would have output
+     * unchanged, e.g. {@code then "a"; then "b"} to
+     * {@code then "ab"}.
+     */
+    static public class Merge implements Rewrite
+    {
+        protected Set<String> verbs = null;
+
+        /**
+         * @param verbs the names of the verbs that can be merged
+         *              in; each must take one STRING arg
+         */
+        public Merge(String... verbs)
+        {
+            this.verbs = new HashSet<>(Arrays.asList(verbs));
+        }
+
+        public int
+        apply(ActionList in, int index, ActionList out)
+        {
+            Action first = in.get(index);
+            if(first.args == null || first.args.size() == 0
+                || first.args.get(first.args.size() - 1).type == ArgType.BLOCK)
+                return 0;
+            int end = index + 1;
+            while(end < in.size() && mergeable(in.get(end)))
+                end++;
+            if(end == index + 1)
+                return 0;
+            StringBuilder text = new StringBuilder();
+            int last = first.args.size() - 1;
+            text.append(first.args.get(last).asString());
+            for(int i = index + 1;i < end;i++)
+                text.append(in.get(i).args.get(0).asString());
+            Action merged = new Action(first.verb);
+            merged.pos = first.pos;
+            ArgList args = new ArgList(first.args.size());
+            for(int i = 0;i < last;i++)
+                args.add(first.args.get(i));
+            args.add(new Arg(ArgType.STRING, text.toString()));
+            merged.setArgs(args);
+            out.add(merged);
+            return end - index;
+        }
+
+        protected boolean
+        mergeable(Action a)
+        {
+            return verbs.contains(a.getName()) && a.args != null && a.args.size() == 1
+                && a.args.get(0).type != ArgType.BLOCK;
+        }
+    }
+
+    //////////////////////////////////////////////////
+    // Instance variables
+
+    protected int rewrites = 0; // rules applied by the last optimize()
+
+    //////////////////////////////////////////////////
+    // API
+
+    /**
+     * Optimize a bound program in place.
+     *
+     * @return the program
+     */
+    public ActionList
+    optimize(ActionList program)
+        throws VEException
+    {
+        this.rewrites = 0;
+        List<ActionList> blocks = new ArrayList<>();
+        // A block shared by several actions (see ProgramInterner)
+        // is optimized once
+        Set<ActionList> seen = Collections.newSetFromMap(new IdentityHashMap<ActionList, Boolean>());
+        blocks.add(program);
+        // Inner blocks are added as they are reached; a merge
+        // keeps the arg objects, so their blocks are not lost
+        for(int b = 0;b < blocks.size();b++) {
+            ActionList block = blocks.get(b);
+            optimizeBlock(block);
+            for(int i = 0;i < block.size();i++) {
+                ArgList args = block.get(i).args;
+                int n = (args == null ? 0 : args.size());
+                for(int j = 0;j < n;j++) {
+                    if(args.get(j).type == ArgType.BLOCK && seen.add(args.getBlock(j)))
+                        blocks.add(args.getBlock(j));
+                }
+            }
+        }
+        return program;
+    }
+
+    /**
+     * @return the number of rewrites done by the last optimize()
+     */
+    public int
+    getRewriteCount()
+    {
+        return this.rewrites;
+    }
+
+    //////////////////////////////////////////////////
+    // Utilities
+
+    /**
+     * Rewrite one block to a fixpoint, ignoring its inner blocks.
+     */
+    protected void
+    optimizeBlock(ActionList block)
+        throws VEException
+    {
+        ActionList in = block;
+        boolean changed = false;
+        for(int pass = 0;pass < MAXPASSES;pass++) {
+            ActionList out = new ActionList();
+            int count = 0;
+            for(int i = 0;i < in.size();) {
+                Action action = in.get(i);
+                if(!action.isBound())
+                    throw new VEException("Cannot optimize an unbound action: " + action.getName());
+                int used = 0;
+                for(Rewrite rule : action.verb.getRewrites()) {
+                    used = rule.apply(in, i, out);
+                    if(used > 0)
+                        break;
+                }
+                if(used > 0) {
+                    i += used;
+                    count++;
+                } else {
+                    out.add(action);
+                    i++;
+                }
+            }
+            if(count == 0)
+                break;
+            this.rewrites += count;
+            in = out;
+            changed = true;
+        }
+        if(changed) {
+            block.setActions(in);
+        }
+    }
+}
@@ -70,6 +70,30 @@ abstract public class Parser
 
     abstract public void parse(String text) throws VEException;
 
+    /**
+     * Parse from an arbitrary CharSequence; parsers that
+     * cannot work on one directly parse its String form.
+     */
+    public void parse(CharSequence text)
+        throws VEException
+    {
+        parse(text.toString());
+    }
+
+    /**
+     * Parse text only to find its errors, adding them to
+     * diagnostics rather than throwing them. Parsers that
+     * cannot recover from an error report only the first.
+     */
+    public void diagnose(CharSequence text, Diagnostics diagnostics)
+    {
+        try {
+            parse(text);
+        } catch (VEException vee) {
+            diagnostics.add(vee);
+        }
+    }
+
 }
 
     
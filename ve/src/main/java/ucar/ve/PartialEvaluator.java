@@ -0,0 +1,239 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Run the pure parts of a bound program once, ahead of time.
+ * An action is pure if its verb is (Verb.isPure()) and so is
+ * every action in its block args, at any depth. Each run of
+ * pure actions is evaluated against a new state from the
+ * Target, and replaced by a single action that adds what the
+ * run added to the state, so a wholly pure program evaluates
+ * as one action. The blocks of impure actions are processed
+ * the same way.
+ * A run that throws when evaluated is left as it is, so that
+ * the error happens when the program is run, as before.
+ * The program is changed in place, as by the Optimizer.
+ */
+
+public class PartialEvaluator
+{
+    //////////////////////////////////////////////////
+    // Types
+
+    /**
+     * What the evaluator needs to know about the state
+     * that the pure verbs of a verb set write to.
+     */
+    static public interface Target
+    {
+        /**
+         * @return a new, empty state
+         */
+        public Object newState();
+
+        /**
+         * @return what was added to a state from newState()
+         */
+        public String fragment(Object state);
+
+        /**
+         * @return an action that adds fragment to the state
+         */
+        public Action emit(String fragment) throws VEException;
+    }
+
+    //////////////////////////////////////////////////
+    // Instance variables
+
+    protected Target target = null;
+    protected int folded = 0; // actions replaced by the last evaluate()
+
+    //////////////////////////////////////////////////
+    // Constructor(s)
+
+    public PartialEvaluator(Target target)
+    {
+        this.target = target;
+    }
+
+    //////////////////////////////////////////////////
+    // API
+
+    /**
+     * Partially evaluate a bound program in place.
+     *
+     * @return the program
+     */
+    public ActionList
+    evaluate(ActionList program)
+        throws VEException
+    {
+        this.folded = 0;
+        Map<ActionList, Boolean> pure = purity(program);
+        Set<ActionList> seen = Collections.newSetFromMap(new IdentityHashMap<ActionList, Boolean>());
+        List<ActionList> blocks = new ArrayList<>();
+        blocks.add(program);
+        for(int b = 0;b < blocks.size();b++) {
+            ActionList block = blocks.get(b);
+            ActionList out = new ActionList();
+            boolean changed = false;
+            for(int i = 0;i < block.size();) {
+                if(!ispure(block.get(i), pure)) {
+                    // Keep it, and look inside its blocks
+                    Action action = block.get(i);
+                    ArgList args = action.args;
+                    int n = (args == null ? 0 : args.size());
+                    for(int j = 0;j < n;j++) {
+                        if(args.get(j).type == ArgType.BLOCK && seen.add(args.getBlock(j)))
+                            blocks.add(args.getBlock(j));
+                    }
+                    out.add(action);
+                    i++;
+                    continue;
+                }
+                int end = i + 1;
+                while(end < block.size() && ispure(block.get(end), pure))
+                    end++;
+                if(fold(block, i, end, out))
+                    changed = true;
+                else {
+                    for(int k = i;k < end;k++)
+                        out.add(block.get(k));
+                }
+                i = end;
+            }
+            if(changed) {
+                block.setActions(out);
+            }
+        }
+        return program;
+    }
+
+    /**
+     * @return the number of actions replaced by the last evaluate(),
+     * counting those in the blocks of pure actions
+     */
+    public int
+    getFoldedCount()
+    {
+        return this.folded;
+    }
+
+    //////////////////////////////////////////////////
+    // Utilities
+
+    /**
+     * Evaluate the run of pure actions in[start..end) and add
+     * what replaces it to out.
+     *
+     * @return false if the run is left as it is
+     */
+    protected boolean
+    fold(ActionList in, int start, int end, ActionList out)
+        throws VEException
+    {
+        if(end - start == 1 && !hasblocks(in.get(start)))
+            return false; // nothing to gain
+        Object state = target.newState();
+        try {
+            for(int i = start;i < end;i++)
+                in.get(i).execute(state);
+        } catch (VEException vee) {
+            return false;
+        }
+        String fragment = target.fragment(state);
+        if(fragment.length() > 0) {
+            Action action = target.emit(fragment);
+            action.pos = in.get(start).pos;
+            out.add(action);
+        }
+        this.folded += end - start;
+        return true;
+    }
+
+    protected boolean
+    ispure(Action action, Map<ActionList, Boolean> pure)
+        throws VEException
+    {
+        if(!action.isBound() || !action.verb.isPure())
+            return false;
+        ArgList args = action.args;
+        int n = (args == null ? 0 : args.size());
+        for(int j = 0;j < n;j++) {
+            if(args.get(j).type == ArgType.BLOCK && !pure.get(args.getBlock(j)))
+                return false;
+        }
+        return true;
+    }
+
+    static protected boolean
+    hasblocks(Action action)
+    {
+        ArgList args = action.args;
+        int n = (args == null ? 0 : args.size());
+        for(int j = 0;j < n;j++) {
+            if(args.get(j).type == ArgType.BLOCK)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decide, for every block, whether all its actions are pure;
+     * depth first with an explicit stack, each block once, so
+     * that a block is decided after all of its inner blocks.
+     */
+    protected Map<ActionList, Boolean>
+    purity(ActionList program)
+        throws VEException
+    {
+        Map<ActionList, Boolean> pure = new IdentityHashMap<>();
+        List<ActionList> stack = new ArrayList<>();
+        stack.add(program);
+        while(!stack.isEmpty()) {
+            ActionList block = stack.get(stack.size() - 1);
+            if(pure.containsKey(block)) {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+            boolean ready = true;
+            boolean p = true;
+            for(int i = 0;i < block.size();i++) {
+                Action action = block.get(i);
+                if(!action.isBound() || !action.verb.isPure())
+                    p = false;
+                ArgList args = action.args;
+                int n = (args == null ? 0 : args.size());
+                for(int j = 0;j < n;j++) {
+                    if(args.get(j).type != ArgType.BLOCK)
+                        continue;
+                    ActionList inner = args.getBlock(j);
+                    Boolean q = pure.get(inner);
+                    if(q == null) {
+                        stack.add(inner);
+                        ready = false;
+                    } else if(!q)
+                        p = false;
+                }
+            }
+            if(ready) {
+                pure.put(block, p);
+                stack.remove(stack.size() - 1);
+            }
+        }
+        return pure;
+    }
+}
@@ -0,0 +1,303 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static ucar.ve.Types.*;
+
+/**
+ * A file of named, precompiled programs (see ProgramCodec)
+ * that share one string table. The file is memory mapped
+ * read only, so JVMs on the same host share it through the
+ * page cache; opening it reads only the header, and each
+ * program is decoded the first time it is requested.
+ * The layout is:
+ * <pre>
+ * header   := MAGIC VERSION 0 0 0 nprograms nstrings stringsoffset indexoffset
+ * programs := (flags verbs block)*          see ProgramCodec
+ * strings  := offset[nstrings+1] utf8-bytes  offsets relative to the bytes
+ * index    := (hash name-string offset length)[nprograms]  sorted by hash
+ * </pre>
+ * where hash is the String.hashCode() of the name, which Java
+ * defines exactly, so a lookup is a binary search over ints.
+ * The header fields and the string and index tables are
+ * 4-byte ints, so a bundle is limited to 2GB.
+ */
+
+public class ProgramBundle
+{
+    //////////////////////////////////////////////////
+    // Constants
+
+    static final int MAGIC = 0x56455042; // "VEPB"
+    static final byte VERSION = 2;
+    static final int HEADERSIZE = 24;
+    static final int ENTRYSIZE = 16;
+
+    //////////////////////////////////////////////////
+    // Types
+
+    /**
+     * The string table of the bundle; each string is
+     * decoded from the mapped bytes on first use.
+     */
+    protected class BundleTable extends ProgramCodec.StringTable
+    {
+        String
+        get(int index)
+            throws VEException
+        {
+            if(index < 0 || index >= nstrings)
+                throw new VEException("Malformed program bundle: bad string index");
+            if(strings == null)
+                strings = new String[nstrings];
+            String s = strings[index];
+            if(s == null) {
+                int start = stringoffset(index);
+                int end = stringoffset(index + 1);
+                if(start < 0 || end < start || stringdata + end > map.limit())
+                    throw new VEException("Malformed program bundle: bad string offset");
+                byte[] bytes = new byte[end - start];
+                ByteBuffer in = map.duplicate();
+                in.position(stringdata + start);
+                in.get(bytes);
+                s = new String(bytes, Util.UTF8);
+                strings[index] = s;
+            }
+            return s;
+        }
+    }
+
+    //////////////////////////////////////////////////
+    // Instance variables
+
+    protected Path path = null;
+    protected ByteBuffer map = null; // only read with absolute gets or duplicates
+    protected Map<String, Verb> verbs = null;
+    protected int nprograms = 0;
+    protected int nstrings = 0;
+    protected int stringsoffset = 0;
+    protected int stringdata = 0; // start of the string bytes
+    protected int indexoffset = 0;
+
+    // Decoded on demand
+    protected String[] strings = null;
+    protected BundleTable table = new BundleTable();
+    protected ActionList[] programs = null;
+
+    //////////////////////////////////////////////////
+    // Constructor(s)
+
+    protected ProgramBundle(Path path, ByteBuffer map, Map<String, Verb> verbs)
+        throws VEException
+    {
+        this.path = path;
+        this.map = map;
+        this.verbs = verbs;
+        if(map.limit() < HEADERSIZE || map.getInt(0) != MAGIC)
+            throw new VEException("Not a program bundle: " + path);
+        if(map.get(4) != VERSION)
+            throw new VEException("Unsupported program bundle version: " + path);
+        this.nprograms = map.getInt(8);
+        this.nstrings = map.getInt(12);
+        this.stringsoffset = map.getInt(16);
+        this.indexoffset = map.getInt(20);
+        this.stringdata = stringsoffset + 4 * (nstrings + 1);
+        if(nprograms < 0 || nstrings < 0 || stringsoffset < HEADERSIZE
+            || stringdata < stringsoffset || stringdata > map.limit()
+            || indexoffset < 0 || (long) indexoffset + (long) ENTRYSIZE * nprograms > map.limit())
+            throw new VEException("Malformed program bundle: " + path);
+    }
+
+    //////////////////////////////////////////////////
+    // API
+
+    /**
+     * Map a bundle; only its header is read.
+     *
+     * @param verbs the verbs that its programs are bound to
+     */
+    static public ProgramBundle
+    open(Path path, Map<String, Verb> verbs)
+        throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+                throw new IOException("Program bundle too large: " + path);
+            ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new ProgramBundle(path, map, verbs);
+        }
+    }
+
+    /**
+     * Write a bundle of programs.
+     *
+     * @param flags ProgramCodec.POSITIONS to keep action positions
+     */
+    static public void
+    write(Path path, Map<String, ActionList> programs, int flags)
+        throws IOException
+    {
+        ProgramCodec.Interner strings = new ProgramCodec.Interner();
+        ProgramCodec.Output out = new ProgramCodec.Output();
+        for(int i = 0;i < HEADERSIZE;i++)
+            out.writeByte(0);
+        // Programs, in hash order
+        List<String> names = new ArrayList<>(programs.keySet());
+        Collections.sort(names, new Comparator<String>()
+        {
+            public int compare(String a, String b)
+            {
+                int c = Integer.compare(a.hashCode(), b.hashCode());
+                return (c != 0 ? c : a.compareTo(b));
+            }
+        });
+        int[] entries = new int[ENTRYSIZE / 4 * names.size()];
+        int i = 0;
+        for(String name : names) {
+            int start = out.n;
+            out.writeByte(flags & ProgramCodec.POSITIONS);
+            ProgramCodec.encode(programs.get(name), flags, strings, out);
+            entries[i++] = name.hashCode();
+            entries[i++] = strings.intern(name);
+            entries[i++] = start;
+            entries[i++] = out.n - start;
+        }
+        // Strings
+        int stringsoffset = out.n;
+        List<byte[]> encoded = new ArrayList<>(strings.strings.size());
+        int offset = 0;
+        out.writeInt(offset);
+        for(String s : strings.strings) {
+            byte[] bytes = s.getBytes(Util.UTF8);
+            encoded.add(bytes);
+            offset += bytes.length;
+            out.writeInt(offset);
+        }
+        for(byte[] bytes : encoded)
+            out.write(bytes, 0, bytes.length);
+        // Index
+        int indexoffset = out.n;
+        for(int entry : entries)
+            out.writeInt(entry);
+        ByteBuffer buf = ByteBuffer.wrap(out.buf, 0, out.n);
+        buf.putInt(0, MAGIC);
+        buf.put(4, VERSION);
+        buf.putInt(8, names.size());
+        buf.putInt(12, strings.strings.size());
+        buf.putInt(16, stringsoffset);
+        buf.putInt(20, indexoffset);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(buf.hasRemaining())
+                channel.write(buf);
+        }
+    }
+
+    public int
+    size()
+    {
+        return this.nprograms;
+    }
+
+    /**
+     * @return the names of all the programs, in index order
+     */
+    public synchronized List<String>
+    getNames()
+        throws VEException
+    {
+        List<String> names = new ArrayList<>(nprograms);
+        for(int i = 0;i < nprograms;i++)
+            names.add(table.get(map.getInt(indexoffset + ENTRYSIZE * i + 4)));
+        return names;
+    }
+
+    /**
+     * @return the named program, decoded on first request,
+     * or null if there is none
+     */
+    public synchronized ActionList
+    get(String name)
+        throws VEException
+    {
+        int entry = find(name);
+        if(entry < 0)
+            return null;
+        if(programs == null)
+            programs = new ActionList[nprograms];
+        ActionList program = programs[entry];
+        if(program == null) {
+            int where = indexoffset + ENTRYSIZE * entry;
+            int start = map.getInt(where + 8);
+            int length = map.getInt(where + 12);
+            if(start < HEADERSIZE || length < 1 || (long) start + length > stringsoffset)
+                throw new VEException("Malformed program bundle: bad program offset for " + name);
+            ByteBuffer in = map.duplicate();
+            in.limit(start + length);
+            in.position(start);
+            try {
+                int flags = in.get();
+                program = ProgramCodec.decode(in, table, flags, verbs);
+            } catch (RuntimeException e) {
+                // e.g. BufferUnderflowException
+                throw new VEException("Malformed program encoding: " + name, e);
+            }
+            programs[entry] = program;
+        }
+        return program;
+    }
+
+    //////////////////////////////////////////////////
+    // Utilities
+
+    protected int
+    stringoffset(int index)
+    {
+        return map.getInt(stringsoffset + 4 * index);
+    }
+
+    /**
+     * Binary search of the index by hash; only the names
+     * of entries with the same hash are compared.
+     *
+     * @return the index entry for name, or -1
+     */
+    protected int
+    find(String name)
+        throws VEException
+    {
+        int hash = name.hashCode();
+        int lo = 0;
+        int hi = nprograms;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(map.getInt(indexoffset + ENTRYSIZE * mid) < hash)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        for(int i = lo;i < nprograms;i++) {
+            int where = indexoffset + ENTRYSIZE * i;
+            if(map.getInt(where) != hash)
+                break;
+            if(table.get(map.getInt(where + 4)).equals(name))
+                return i;
+        }
+        return -1;
+    }
+}
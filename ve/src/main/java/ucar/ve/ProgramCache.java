@@ -0,0 +1,400 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import static ucar.ve.Types.*;
+
+/**
+ * A cache of CompiledPrograms shared between threads, keyed by
+ * the SHA-256 of the script text, the parser class, the
+ * identity of the Configuration.verbs list and the flags
+ * that change the program (see Key).
+ * <p>
+ * Eviction is segmented LRU bounded by the programs'
+ * estimated heap size (CompiledProgram.getSizeEstimate()):
+ * a new program enters the probationary segment and moves
+ * to the protected segment, which may hold up to PROTECTED
+ * of the capacity, when it is used again; programs dropped
+ * from the protected segment go back to probation, and
+ * evictions are taken from the old end of probation.
+ * So a burst of scripts seen once cannot flush the programs
+ * that are used over and over.
+ * <p>
+ * Threads asking for the same missing key wait for a single
+ * compile; a compile that fails is not cached and its error
+ * is thrown to every thread waiting on it.
+ * <p>
+ * A VE uses the cache named by Configuration.cache, if any.
+ */
+
+public class ProgramCache
+{
+    //////////////////////////////////////////////////
+    // Constants
+
+    static final public long DEFAULTCAPACITY = 64L << 20; // bytes
+    static final double PROTECTED = 0.8;
+
+    //////////////////////////////////////////////////
+    // Types
+
+    /**
+     * Everything that determines the compiled program: the script,
+     * the parser class, the verbs and the Configuration flags that
+     * change what is parsed or how. Configuration.parallel is left
+     * out because a parallel parse gives the same program.
+     */
+    static public class Key
+    {
+        protected byte[] digest = null;
+        protected Class<?> format = null;
+        protected List<VerbDef> verbs = null; // compared by identity
+        protected boolean optimize = false;
+        protected boolean intern = false;
+        protected boolean lazy = false;
+        protected boolean positions = true;
+        protected int hash = 0;
+
+        /**
+         * A key for a program parsed with the default flags
+         * of a new Configuration.
+         */
+        public Key(CharSequence script, Class<?> format, List<VerbDef> verbs)
+        {
+            this.digest = digest(script);
+            this.format = format;
+            this.verbs = verbs;
+            this.hash = Arrays.hashCode(digest) * 31 + System.identityHashCode(verbs);
+        }
+
+        /**
+         * A key for the program that cfg gives for script.
+         */
+        public Key(CharSequence script, Configuration cfg)
+        {
+            this(script, cfg.format, cfg.verbs);
+            this.optimize = cfg.optimize;
+            this.intern = cfg.intern;
+            this.lazy = cfg.lazy;
+            this.positions = cfg.positions;
+        }
+
+        public int hashCode()
+        {
+            return this.hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            if(!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return this.verbs == other.verbs
+                && this.format == other.format
+                && this.optimize == other.optimize
+                && this.intern == other.intern
+                && this.lazy == other.lazy
+                && this.positions == other.positions
+                && Arrays.equals(this.digest, other.digest);
+        }
+    }
+
+    //////////////////////////////////////////////////
+    // Static variables
+
+    static protected ProgramCache defaultcache = null;
+
+    //////////////////////////////////////////////////
+    // Instance variables
+
+    protected long capacity = 0;
+    protected long protectedcapacity = 0;
+    // Both in access order, oldest first
+    protected LinkedHashMap<Key, CompiledProgram> probation = new LinkedHashMap<>(16, 0.75f, true);
+    protected LinkedHashMap<Key, CompiledProgram> protectd = new LinkedHashMap<>(16, 0.75f, true);
+    protected long probationsize = 0;
+    protected long protectedsize = 0;
+    // Compiles in progress
+    protected Map<Key, FutureTask<CompiledProgram>> loading = new HashMap<>();
+
+    // Statistics
+    protected long hits = 0;
+    protected long misses = 0;
+    protected long evictions = 0;
+
+    //////////////////////////////////////////////////
+    // Constructor(s)
+
+    public ProgramCache()
+    {
+        this(DEFAULTCAPACITY);
+    }
+
+    /**
+     * @param capacity the bound on the total estimated
+     *                 size of the cached programs, in bytes
+     */
+    public ProgramCache(long capacity)
+    {
+        this.capacity = capacity;
+        this.protectedcapacity = (long) (capacity * PROTECTED);
+    }
+
+    /**
+     * @return a cache of DEFAULTCAPACITY shared by the process
+     */
+    static public synchronized ProgramCache
+    getDefault()
+    {
+        if(defaultcache == null)
+            defaultcache = new ProgramCache();
+        return defaultcache;
+    }
+
+    //////////////////////////////////////////////////
+    // API
+
+    /**
+     * @return the cached program for key, or null
+     */
+    public synchronized CompiledProgram
+    getIfPresent(Key key)
+    {
+        CompiledProgram program = lookup(key);
+        if(program != null)
+            hits++;
+        return program;
+    }
+
+    /**
+     * Get the program for key, calling compiler to build it if it
+     * is missing; only one thread compiles a given key at a time.
+     */
+    public CompiledProgram
+    get(Key key, Callable<CompiledProgram> compiler)
+        throws VEException
+    {
+        FutureTask<CompiledProgram> task;
+        boolean mine = false;
+        synchronized (this) {
+            CompiledProgram program = lookup(key);
+            if(program != null) {
+                hits++;
+                return program;
+            }
+            misses++;
+            task = loading.get(key);
+            if(task == null) {
+                task = new FutureTask<>(compiler);
+                loading.put(key, task);
+                mine = true;
+            }
+        }
+        if(mine)
+            task.run();
+        try {
+            CompiledProgram program = task.get();
+            if(mine)
+                put(key, program);
+            return program;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new VEException(ie);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if(cause instanceof VEException)
+                throw (VEException) cause;
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if(cause instanceof Error)
+                throw (Error) cause;
+            throw new VEException(cause);
+        } finally {
+            if(mine) {
+                synchronized (this) {
+                    loading.remove(key);
+                }
+            }
+        }
+    }
+
+    public synchronized void
+    put(Key key, CompiledProgram program)
+    {
+        remove(key);
+        long size = program.getSizeEstimate();
+        if(size > capacity)
+            return; // would only evict everything else
+        probation.put(key, program);
+        probationsize += size;
+        evict();
+    }
+
+    public synchronized void
+    remove(Key key)
+    {
+        CompiledProgram old = probation.remove(key);
+        if(old != null)
+            probationsize -= old.getSizeEstimate();
+        old = protectd.remove(key);
+        if(old != null)
+            protectedsize -= old.getSizeEstimate();
+    }
+
+    public synchronized void
+    clear()
+    {
+        probation.clear();
+        protectd.clear();
+        probationsize = 0;
+        protectedsize = 0;
+    }
+
+    //////////////////////////////////////////////////
+    // Accessors
+
+    public synchronized int
+    size()
+    {
+        return probation.size() + protectd.size();
+    }
+
+    /**
+     * @return the total estimated size of the cached programs
+     */
+    public synchronized long
+    getWeight()
+    {
+        return probationsize + protectedsize;
+    }
+
+    public long
+    getCapacity()
+    {
+        return this.capacity;
+    }
+
+    public synchronized long
+    getHits()
+    {
+        return this.hits;
+    }
+
+    public synchronized long
+    getMisses()
+    {
+        return this.misses;
+    }
+
+    public synchronized long
+    getEvictions()
+    {
+        return this.evictions;
+    }
+
+    public synchronized String
+    toString()
+    {
+        return String.format("ProgramCache{size=%d weight=%d/%d hits=%d misses=%d evictions=%d}",
+            size(), getWeight(), capacity, hits, misses, evictions);
+    }
+
+    //////////////////////////////////////////////////
+    // Utilities
+
+    /**
+     * Find key and record the access; the caller holds the lock.
+     */
+    protected CompiledProgram
+    lookup(Key key)
+    {
+        CompiledProgram program = protectd.get(key); // moves it to the new end
+        if(program != null)
+            return program;
+        program = probation.remove(key);
+        if(program == null)
+            return null;
+        // Second use: promote
+        long size = program.getSizeEstimate();
+        probationsize -= size;
+        protectd.put(key, program);
+        protectedsize += size;
+        // Demote the oldest protected programs
+        Iterator<Map.Entry<Key, CompiledProgram>> it = protectd.entrySet().iterator();
+        while(protectedsize > protectedcapacity && it.hasNext()) {
+            Map.Entry<Key, CompiledProgram> oldest = it.next();
+            if(oldest.getKey() == key)
+                break;
+            it.remove();
+            long oldsize = oldest.getValue().getSizeEstimate();
+            protectedsize -= oldsize;
+            probation.put(oldest.getKey(), oldest.getValue());
+            probationsize += oldsize;
+        }
+        evict();
+        return program;
+    }
+
+    /**
+     * Evict from the old end of probation, then of the
+     * protected segment, until the cache fits.
+     */
+    protected void
+    evict()
+    {
+        Iterator<Map.Entry<Key, CompiledProgram>> it = probation.entrySet().iterator();
+        while(probationsize + protectedsize > capacity && it.hasNext()) {
+            probationsize -= it.next().getValue().getSizeEstimate();
+            it.remove();
+            evictions++;
+        }
+        it = protectd.entrySet().iterator();
+        while(probationsize + protectedsize > capacity && it.hasNext()) {
+            protectedsize -= it.next().getValue().getSizeEstimate();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * SHA-256 of the UTF-16 code units of text.
+     */
+    static public byte[]
+    digest(CharSequence text)
+    {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM must have it
+        }
+        byte[] buf = new byte[8192];
+        int n = 0;
+        for(int i = 0;i < text.length();i++) {
+            char c = text.charAt(i);
+            buf[n++] = (byte) (c >>> 8);
+            buf[n++] = (byte) c;
+            if(n == buf.length) {
+                md.update(buf, 0, n);
+                n = 0;
+            }
+        }
+        md.update(buf, 0, n);
+        return md.digest();
+    }
+}
@@ -0,0 +1,498 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Binary form of a parsed program, so that fixed scripts
+ * can be loaded without running the parser.
+ * The layout is:
+ * <pre>
+ * program  := MAGIC VERSION flags strings verbs block
+ * strings  := count (length utf8-bytes)*
+ * verbs    := count string-index*
+ * block    := count action*
+ * action   := verb-index [line-delta char+1] count arg*
+ * arg      := tag (string-index | zigzag-long | block)
+ * </pre>
+ * where all counts and indices are unsigned varints and
+ * the positions are present only if the POSITIONS flag is set;
+ * an action with no position is written with a line-delta of 0
+ * and a char+1 of 0, and decodes to an action with no position.
+ * Each distinct string and verb name is stored once.
+ * Decoding binds the verbs by name and checks the argument
+ * signatures as the Binder does, so a program can be loaded
+ * against any verb set that fits it.
+ * Blocks are walked with an explicit stack, as in the
+ * parser, so depth is limited only by the heap.
+ */
+
+abstract public class ProgramCodec
+{
+    //////////////////////////////////////////////////
+    // Constants
+
+    static final int MAGIC = 0x56455043; // "VEPC"
+    static final byte VERSION = 2;
+
+    // Flags
+    static final public int POSITIONS = 1;
+
+    // Arg tags
+    static final byte TAG_WORD = 0;
+    static final byte TAG_STRING = 1;
+    static final byte TAG_NUMBER = 2; // number kept as text
+    static final byte TAG_LONG = 3;   // number that is a canonical long
+    static final byte TAG_BLOCK = 4;
+
+    //////////////////////////////////////////////////
+    // Types
+
+    /**
+     * A growable byte array with varint writers.
+     */
+    static protected class Output
+    {
+        byte[] buf = new byte[256];
+        int n = 0;
+
+        void
+        ensure(int more)
+        {
+            if(buf.length - n < more)
+                buf = Arrays.copyOf(buf, Math.max(2 * buf.length, n + more));
+        }
+
+        void
+        writeByte(int b)
+        {
+            ensure(1);
+            buf[n++] = (byte) b;
+        }
+
+        void
+        writeInt(int v)
+        {
+            ensure(4);
+            buf[n++] = (byte) (v >>> 24);
+            buf[n++] = (byte) (v >>> 16);
+            buf[n++] = (byte) (v >>> 8);
+            buf[n++] = (byte) v;
+        }
+
+        void
+        writeVarint(long v)
+        {
+            ensure(10);
+            while((v & ~0x7FL) != 0) {
+                buf[n++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[n++] = (byte) v;
+        }
+
+        void
+        write(byte[] b, int off, int len)
+        {
+            ensure(len);
+            System.arraycopy(b, off, buf, n, len);
+            n += len;
+        }
+    }
+
+    /**
+     * One block being encoded or decoded, and
+     * the action in it whose args are in progress.
+     */
+    static protected class Frame
+    {
+        ActionList block = null;
+        int index = 0;      // encode: next action
+        int remaining = 0;  // decode: actions still to read
+        Action action = null;
+        ArgList args = null;
+        int argindex = 0;   // encode: next arg
+        int nargs = 0;      // decode: args to read
+
+        Frame(ActionList block)
+        {
+            this.block = block;
+        }
+    }
+
+    /**
+     * Strings of an encoding by index; see ProgramBundle
+     * for a table that is shared by many programs.
+     */
+    static abstract protected class StringTable
+    {
+        abstract String get(int index) throws VEException;
+    }
+
+    static protected class ArrayTable extends StringTable
+    {
+        String[] strings = null;
+
+        ArrayTable(String[] strings)
+        {
+            this.strings = strings;
+        }
+
+        String
+        get(int index)
+        {
+            return strings[index];
+        }
+    }
+
+    /**
+     * Assigns each distinct string an index in order of first use.
+     */
+    static protected class Interner
+    {
+        Map<String, Integer> indices = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+
+        int
+        intern(String s)
+        {
+            Integer index = indices.get(s);
+            if(index == null) {
+                index = strings.size();
+                indices.put(s, index);
+                strings.add(s);
+            }
+            return index;
+        }
+    }
+
+    //////////////////////////////////////////////////
+    // API
+
+    /**
+     * Encode a program, bound or unbound.
+     * Blocks left unparsed by a lazy parse are parsed here.
+     *
+     * @param flags POSITIONS to keep action positions
+     */
+    static public byte[]
+    encode(ActionList program, int flags)
+        throws VEException
+    {
+        Interner strings = new Interner();
+        Output body = new Output();
+        encode(program, flags, strings, body);
+        Output out = new Output();
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(flags & POSITIONS);
+        out.writeVarint(strings.strings.size());
+        for(String s : strings.strings) {
+            byte[] bytes = s.getBytes(Util.UTF8);
+            out.writeVarint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        out.write(body.buf, 0, body.n);
+        return Arrays.copyOf(out.buf, out.n);
+    }
+
+    static public ActionList
+    decode(byte[] data, Map<String, Verb> verbs)
+        throws VEException
+    {
+        return decode(ByteBuffer.wrap(data), verbs);
+    }
+
+    /**
+     * Rebuild a bound program from its encoding,
+     * which is read from the position of data.
+     */
+    static public ActionList
+    decode(ByteBuffer data, Map<String, Verb> verbs)
+        throws VEException
+    {
+        try {
+            return decode0(data, verbs);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new VEException("Malformed program encoding", e);
+        }
+    }
+
+    //////////////////////////////////////////////////
+    // Utilities
+
+    /**
+     * Write the verbs and actions of a program to out;
+     * their strings are added to strings.
+     */
+    static protected void
+    encode(ActionList program, int flags, Interner strings, Output out)
+        throws VEException
+    {
+        boolean positions = (flags & POSITIONS) != 0;
+        Map<String, Integer> verbs = new HashMap<>();
+        List<Integer> verblist = new ArrayList<>();
+        Output body = new Output();
+        int lastline = 0;
+        List<Frame> stack = new ArrayList<>();
+        Frame top = new Frame(program);
+        body.writeVarint(program.size());
+        for(;;) {
+            if(top.action != null && top.args != null && top.argindex < top.args.size()) {
+                Arg arg = top.args.get(top.argindex++);
+                switch (arg.type) {
+                case WORD:
+                    body.writeByte(TAG_WORD);
+                    body.writeVarint(strings.intern(arg.value.toString()));
+                    break;
+                case STRING:
+                    body.writeByte(TAG_STRING);
+                    body.writeVarint(strings.intern(arg.value.toString()));
+                    break;
+                case NUMBER:
+                    String text = arg.value.toString();
+                    Long l = canonicallong(text);
+                    if(l != null) {
+                        body.writeByte(TAG_LONG);
+                        body.writeVarint(zigzag(l));
+                    } else {
+                        body.writeByte(TAG_NUMBER);
+                        body.writeVarint(strings.intern(text));
+                    }
+                    break;
+                case BLOCK:
+                    ActionList block = top.args.getBlock(top.argindex - 1);
+                    body.writeByte(TAG_BLOCK);
+                    body.writeVarint(block.size());
+                    stack.add(top);
+                    top = new Frame(block);
+                    break;
+                }
+                continue;
+            }
+            top.action = null;
+            if(top.index < top.block.size()) {
+                Action action = top.block.get(top.index++);
+                String name = action.getName();
+                Integer verb = verbs.get(name);
+                if(verb == null) {
+                    verb = verblist.size();
+                    verbs.put(name, verb);
+                    verblist.add(strings.intern(name));
+                }
+                body.writeVarint(verb);
+                if(positions) {
+                    long pos = action.getPackedPosition();
+                    boolean none = (pos == Action.NOPOS);
+                    int line = (none ? lastline : Action.lineno(pos));
+                    body.writeVarint(zigzag(line - lastline));
+                    body.writeVarint(none ? 0 : Action.charno(pos) + 1L);
+                    lastline = line;
+                }
+                top.action = action;
+                top.args = action.args;
+                top.argindex = 0;
+                body.writeVarint(action.args == null ? 0 : action.args.size());
+                continue;
+            }
+            if(stack.isEmpty())
+                break;
+            top = stack.remove(stack.size() - 1);
+        }
+        out.writeVarint(verblist.size());
+        for(Integer index : verblist)
+            out.writeVarint(index);
+        out.write(body.buf, 0, body.n);
+    }
+
+    static protected ActionList
+    decode0(ByteBuffer in, Map<String, Verb> verbs)
+        throws VEException
+    {
+        if(in.getInt() != MAGIC)
+            throw new VEException("Not a program encoding");
+        if(in.get() != VERSION)
+            throw new VEException("Unsupported program encoding version");
+        int flags = in.get();
+        String[] strings = new String[count(in)];
+        byte[] scratch = new byte[64];
+        for(int i = 0;i < strings.length;i++) {
+            int len = count(in);
+            if(in.hasArray()) {
+                strings[i] = new String(in.array(), in.arrayOffset() + in.position(), len, Util.UTF8);
+                in.position(in.position() + len);
+            } else {
+                if(scratch.length < len)
+                    scratch = new byte[Math.max(len, 2 * scratch.length)];
+                in.get(scratch, 0, len);
+                strings[i] = new String(scratch, 0, len, Util.UTF8);
+            }
+        }
+        return decode(in, new ArrayTable(strings), flags, verbs);
+    }
+
+    /**
+     * Read the verbs and actions of a program from in.
+     */
+    static protected ActionList
+    decode(ByteBuffer in, StringTable strings, int flags, Map<String, Verb> verbs)
+        throws VEException
+    {
+        boolean positions = (flags & POSITIONS) != 0;
+        Verb[] verbtable = new Verb[count(in)];
+        for(int i = 0;i < verbtable.length;i++) {
+            String name = strings.get(index(in));
+            verbtable[i] = verbs.get(name);
+            if(verbtable[i] == null)
+                throw new VEException(String.format("Unknown verb: %s", name));
+        }
+        int lastline = 0;
+        List<Frame> stack = new ArrayList<>();
+        int n = count(in);
+        Frame top = new Frame(new ActionList());
+        top.remaining = n;
+        for(;;) {
+            if(top.action != null) {
+                if(top.args.size() < top.nargs) {
+                    byte tag = in.get();
+                    switch (tag) {
+                    case TAG_WORD:
+                        top.args.add(new Arg(ArgType.WORD, strings.get(index(in))));
+                        break;
+                    case TAG_STRING:
+                        top.args.add(new Arg(ArgType.STRING, strings.get(index(in))));
+                        break;
+                    case TAG_NUMBER:
+                        top.args.add(new Arg(ArgType.NUMBER, strings.get(index(in))));
+                        break;
+                    case TAG_LONG:
+                        top.args.add(new Arg(ArgType.NUMBER, unzigzag(varint(in))));
+                        break;
+                    case TAG_BLOCK:
+                        n = count(in);
+                        stack.add(top);
+                        top = new Frame(new ActionList());
+                        top.remaining = n;
+                        break;
+                    default:
+                        throw new VEException("Malformed program encoding: bad arg tag " + tag);
+                    }
+                    continue;
+                }
+                Binder.check(top.action, top.args);
+                top.action.setArgs(top.args);
+                top.block.add(top.action);
+                top.action = null;
+            }
+            if(top.remaining > 0) {
+                top.remaining--;
+                Action action = new Action(verbtable[index(in)]);
+                if(positions) {
+                    lastline += (int) unzigzag(varint(in));
+                    int charno = index(in);
+                    if(charno > 0)
+                        action.setPosition(lastline, charno - 1);
+                }
+                top.nargs = count(in);
+                top.args = new ArgList(top.nargs);
+                top.action = action;
+                continue;
+            }
+            if(stack.isEmpty())
+                return top.block;
+            ActionList block = top.block;
+            top = stack.remove(stack.size() - 1);
+            top.args.add(new Arg(ArgType.BLOCK, block));
+        }
+    }
+
+    /**
+     * @return the value of text if it is the decimal form
+     * Long.toString() would give, else null; only such numbers
+     * can be stored as longs without changing their text.
+     */
+    static protected Long
+    canonicallong(String text)
+    {
+        int len = text.length();
+        int start = (len > 0 && text.charAt(0) == '-' ? 1 : 0);
+        if(start == len)
+            return null;
+        for(int i = start;i < len;i++) {
+            char c = text.charAt(i);
+            if(c < '0' || c > '9')
+                return null;
+        }
+        if(!VEParser.fitslong(text, start, len, start == 1))
+            return null;
+        long value = Long.parseLong(text);
+        return (Long.toString(value).equals(text) ? value : null);
+    }
+
+    static protected long
+    zigzag(long v)
+    {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static protected long
+    unzigzag(long v)
+    {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    static protected long
+    varint(ByteBuffer in)
+        throws VEException
+    {
+        long v = 0;
+        for(int shift = 0;shift < 64;shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if(b >= 0)
+                return v;
+        }
+        throw new VEException("Malformed program encoding: bad varint");
+    }
+
+    /**
+     * Read a count; every counted item takes at least one
+     * byte, so a count larger than the bytes remaining is
+     * malformed and cannot cause a huge allocation.
+     */
+    static protected int
+    count(ByteBuffer in)
+        throws VEException
+    {
+        long v = varint(in);
+        if(v < 0 || v > in.remaining())
+            throw new VEException("Malformed program encoding: bad count");
+        return (int) v;
+    }
+
+    /**
+     * Read an index (or other small number); an index that is out
+     * of range is caught where it is used.
+     */
+    static protected int
+    index(ByteBuffer in)
+        throws VEException
+    {
+        long v = varint(in);
+        if(v < 0 || v > Integer.MAX_VALUE)
+            throw new VEException("Malformed program encoding: bad index");
+        return (int) v;
+    }
+}
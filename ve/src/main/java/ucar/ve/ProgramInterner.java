@@ -0,0 +1,273 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import static ucar.ve.Types.*;
+
+/**
+ * Hash-consing of the parts of a program as it is built:
+ * equal argument constants become one shared Arg, and equal
+ * blocks one shared ActionList (inside one shared Arg), so a
+ * script that repeats a block keeps one copy of it, and a cache
+ * keyed by block identity sees every copy as the same block.
+ * Blocks must be interned bottom up, after their inner blocks,
+ * so that equal blocks are exactly those whose actions have the
+ * same verbs, the same (already shared) Arg objects and the same
+ * positions; that makes a block's hash and comparison one pass
+ * over its actions with no recursion. Since positions count, a
+ * block that is repeated is shared only if positions are not
+ * kept (see Configuration.positions); with them, only the
+ * constants are shared, blocks are not looked up at all, and
+ * every action reports its own place.
+ * Interned blocks are SharedBlocks, which cannot be changed except
+ * by setActions(), which the passes that rewrite a program use,
+ * once per shared block (see Optimizer). Shared Args must not be
+ * modified.
+ * Not thread safe: use one per parse.
+ */
+
+public class ProgramInterner
+{
+    //////////////////////////////////////////////////
+    // Types
+
+    /**
+     * A block that may be shared by several actions. It can only
+     * be changed as a whole, with setActions(); the other methods
+     * that would change it throw.
+     */
+    static public class SharedBlock extends ActionList
+    {
+        static private final long serialVersionUID = 1L;
+
+        public SharedBlock(List<Action> actions)
+        {
+            super.addAll(actions);
+        }
+
+        public void
+        setActions(List<Action> actions)
+        {
+            super.clear();
+            super.addAll(actions);
+        }
+
+        protected List<Action>
+        view()
+        {
+            return Collections.unmodifiableList(super.subList(0, size()));
+        }
+
+        // Reads that would otherwise hand out a changeable view
+        public Iterator<Action> iterator() {return view().iterator();}
+        public ListIterator<Action> listIterator() {return view().listIterator();}
+        public ListIterator<Action> listIterator(int index) {return view().listIterator(index);}
+        public List<Action> subList(int from, int to) {return view().subList(from, to);}
+
+        // Changes
+        public ActionList addAction(Action x) {throw readonly();}
+        public boolean add(Action x) {throw readonly();}
+        public void add(int index, Action x) {throw readonly();}
+        public boolean addAll(Collection<? extends Action> c) {throw readonly();}
+        public boolean addAll(int index, Collection<? extends Action> c) {throw readonly();}
+        public Action set(int index, Action x) {throw readonly();}
+        public Action remove(int index) {throw readonly();}
+        public boolean remove(Object o) {throw readonly();}
+        public boolean removeAll(Collection<?> c) {throw readonly();}
+        public boolean retainAll(Collection<?> c) {throw readonly();}
+        public boolean removeIf(Predicate<? super Action> filter) {throw readonly();}
+        public void replaceAll(UnaryOperator<Action> op) {throw readonly();}
+        public void sort(Comparator<? super Action> c) {throw readonly();}
+        public void clear() {throw readonly();}
+
+        protected UnsupportedOperationException
+        readonly()
+        {
+            return new UnsupportedOperationException("SharedBlock is read only; see setActions()");
+        }
+    }
+
+    /**
+     * Identity of a block whose parts are already interned.
+     */
+    static protected class BlockKey
+    {
+        protected ActionList block = null;
+        protected int hash = 0;
+
+        BlockKey(ActionList block)
+        {
+            this.block = block;
+            int h = block.size();
+            for(int i = 0;i < block.size();i++) {
+                Action action = block.get(i);
+                h = h * 31 + System.identityHashCode(action.verb);
+                h = h * 31 + Long.hashCode(action.getPackedPosition());
+                ArgList args = action.args;
+                int n = (args == null ? 0 : args.size());
+                for(int j = 0;j < n;j++)
+                    h = h * 31 + System.identityHashCode(args.get(j));
+            }
+            this.hash = h;
+        }
+
+        public int hashCode()
+        {
+            return this.hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            if(!(o instanceof BlockKey))
+                return false;
+            ActionList other = ((BlockKey) o).block;
+            if(other.size() != block.size())
+                return false;
+            for(int i = 0;i < block.size();i++) {
+                Action a = block.get(i);
+                Action b = other.get(i);
+                if(a.verb != b.verb || a.getPackedPosition() != b.getPackedPosition())
+                    return false;
+                int n = (a.args == null ? 0 : a.args.size());
+                if(n != (b.args == null ? 0 : b.args.size()))
+                    return false;
+                for(int j = 0;j < n;j++) {
+                    if(a.args.get(j) != b.args.get(j))
+                        return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    //////////////////////////////////////////////////
+    // Instance variables
+
+    // Per ArgType; keyed by the value as a String
+    protected List<Map<String, Arg>> constants = null;
+    protected Map<BlockKey, Arg> blocks = new HashMap<>();
+    protected boolean positions = false; // then blocks are not shared
+
+    // Statistics
+    protected int args = 0;
+    protected int sharedargs = 0;
+    protected int blockcount = 0;
+    protected int sharedblocks = 0;
+
+    //////////////////////////////////////////////////
+    // Constructor(s)
+
+    public ProgramInterner()
+    {
+        this(false);
+    }
+
+    /**
+     * @param positions true if the actions have positions
+     */
+    public ProgramInterner(boolean positions)
+    {
+        this.positions = positions;
+        this.constants = new ArrayList<>();
+        for(int i = 0;i < ArgType.values().length;i++)
+            this.constants.add(new HashMap<String, Arg>());
+    }
+
+    //////////////////////////////////////////////////
+    // API
+
+    /**
+     * @return the shared WORD or STRING arg with this value
+     */
+    public Arg
+    arg(ArgType type, CharSequence value)
+    {
+        args++;
+        String text = value.toString();
+        Map<String, Arg> map = constants.get(type.ordinal());
+        Arg arg = map.get(text);
+        if(arg == null) {
+            arg = new Arg(type, text);
+            map.put(text, arg);
+        } else
+            sharedargs++;
+        return arg;
+    }
+
+    /**
+     * @return the shared NUMBER arg with this text and value
+     */
+    public Arg
+    number(CharSequence value, long longvalue)
+    {
+        args++;
+        String text = value.toString();
+        Map<String, Arg> map = constants.get(ArgType.NUMBER.ordinal());
+        Arg arg = map.get(text);
+        if(arg == null) {
+            arg = new Arg(text, longvalue);
+            map.put(text, arg);
+        } else
+            sharedargs++;
+        return arg;
+    }
+
+    /**
+     * @param block a complete block whose args, including
+     *              its inner blocks, were all interned here
+     * @return the shared BLOCK arg for a block equal to it,
+     * whose value is a SharedBlock, or a BLOCK arg of its
+     * own if positions are kept
+     */
+    public Arg
+    block(ActionList block)
+    {
+        blockcount++;
+        if(positions)
+            return new Arg(ArgType.BLOCK, block);
+        BlockKey key = new BlockKey(block);
+        Arg arg = blocks.get(key);
+        if(arg == null) {
+            key.block = new SharedBlock(block);
+            arg = new Arg(ArgType.BLOCK, key.block);
+            blocks.put(key, arg);
+        } else
+            sharedblocks++;
+        return arg;
+    }
+
+    //////////////////////////////////////////////////
+    // Accessors
+
+    /**
+     * @return the number of args and blocks that were
+     * replaced by a shared copy
+     */
+    public int
+    getSharedCount()
+    {
+        return sharedargs + sharedblocks;
+    }
+
+    public String
+    toString()
+    {
+        return String.format("ProgramInterner{args=%d shared=%d blocks=%d shared=%d}",
+            args, sharedargs, blockcount, sharedblocks);
+    }
+}
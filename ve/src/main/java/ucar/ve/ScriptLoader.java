@@ -0,0 +1,223 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Load a script as a CharSequence that the parser can use
+ * directly, without making a String of it.
+ * Files are memory mapped; a file that is all ASCII, as most
+ * scripts are, is used in place as an AsciiText, over which the
+ * lexer can scan eight chars at a time. Other inputs (stdin,
+ * pipes) are read through a channel with a large buffer. Either
+ * way the UTF-8 bytes of anything else are decoded a chunk at a
+ * time, runs of ASCII by a plain copy loop and the rest by a
+ * CharsetDecoder. Malformed input is replaced, as by an
+ * InputStreamReader.
+ */
+
+abstract public class ScriptLoader
+{
+    //////////////////////////////////////////////////
+    // Constants
+
+    static final int CHUNKSIZE = 1 << 20;
+
+    static final long HIGHBITS = 0x8080808080808080L;
+
+    //////////////////////////////////////////////////
+    // Types
+
+    /**
+     * A view of ASCII bytes as chars; getLong() reads eight
+     * of them at once, little endian, for the lexer's scans.
+     */
+    static public class AsciiText implements CharSequence
+    {
+        protected final ByteBuffer bytes; // little endian
+        protected final int start;
+        protected final int end;
+
+        /**
+         * @param bytes all ASCII, from position 0 to the limit
+         */
+        public AsciiText(ByteBuffer bytes)
+        {
+            this(bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN), 0, bytes.limit());
+        }
+
+        protected AsciiText(ByteBuffer bytes, int start, int end)
+        {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+        }
+
+        public int length()
+        {
+            return this.end - this.start;
+        }
+
+        public char charAt(int index)
+        {
+            if(index < 0 || index >= this.end - this.start)
+                throw new IndexOutOfBoundsException("Index: " + index);
+            return (char) bytes.get(this.start + index);
+        }
+
+        /**
+         * @return chars index..index+7 as the bytes of a long,
+         * the first in the low byte; index + 8 must not be
+         * past length()
+         */
+        public long getLong(int index)
+        {
+            return bytes.getLong(this.start + index);
+        }
+
+        public CharSequence subSequence(int start, int end)
+        {
+            if(start < 0 || end > length() || start > end)
+                throw new IndexOutOfBoundsException("Range: " + start + ".." + end);
+            return new AsciiText(this.bytes, this.start + start, this.start + end);
+        }
+
+        public String toString()
+        {
+            byte[] b = new byte[length()];
+            for(int i = 0;i < b.length;i++)
+                b[i] = bytes.get(this.start + i);
+            return new String(b, Util.UTF8);
+        }
+    }
+
+    //////////////////////////////////////////////////
+    // API
+
+    /**
+     * @param filename the file to load, or null or "-" for stdin
+     */
+    static public CharSequence
+    load(String filename)
+        throws IOException
+    {
+        if(filename == null || filename.equals("-"))
+            return load(Channels.newChannel(System.in));
+        return load(Paths.get(filename));
+    }
+
+    static public CharSequence
+    load(Path path)
+        throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+                throw new IOException("Script too large: " + path);
+            if(size == 0) // e.g. a device or /proc file: size unknown
+                return decode(null, channel, CHUNKSIZE);
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if(isascii(mapped))
+                return new AsciiText(mapped);
+            return decode(mapped, null, (int) size);
+        }
+    }
+
+    /**
+     * Read a channel to its end; the channel is not closed.
+     */
+    static public CharSequence
+    load(ReadableByteChannel channel)
+        throws IOException
+    {
+        return decode(null, channel, CHUNKSIZE);
+    }
+
+    //////////////////////////////////////////////////
+    // Utilities
+
+    /**
+     * @return true if no byte of buffer has its high bit set;
+     * checked eight bytes at a time
+     */
+    static protected boolean
+    isascii(ByteBuffer buffer)
+    {
+        int len = buffer.limit();
+        int i = 0;
+        long any = 0;
+        for(;i + 8 <= len;i += 8)
+            any |= buffer.getLong(i);
+        for(;i < len;i++)
+            any |= buffer.get(i);
+        return (any & HIGHBITS) == 0;
+    }
+
+    /**
+     * Decode all of mapped, or if it is null, all of channel.
+     *
+     * @param sizehint initial capacity in chars
+     */
+    static protected CharBuffer
+    decode(ByteBuffer mapped, ReadableByteChannel channel, int sizehint)
+        throws IOException
+    {
+        CharsetDecoder decoder = Util.UTF8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        byte[] chunk = new byte[CHUNKSIZE];
+        char[] chars = new char[Math.max(sizehint, 16)];
+        int n = 0;     // chars decoded
+        int carry = 0; // bytes of an incomplete sequence at the front of chunk
+        boolean eof = false;
+        while(!eof) {
+            // Fill the chunk after any carried bytes
+            int len;
+            if(mapped != null) {
+                len = Math.min(chunk.length - carry, mapped.remaining());
+                mapped.get(chunk, carry, len);
+                eof = !mapped.hasRemaining();
+            } else {
+                int count = channel.read(ByteBuffer.wrap(chunk, carry, chunk.length - carry));
+                eof = (count < 0);
+                len = Math.max(count, 0);
+            }
+            int end = carry + len;
+            // Each byte yields at most one char
+            if(chars.length - n < end)
+                chars = Arrays.copyOf(chars, Math.max(2 * chars.length, n + end));
+            int i = 0;
+            if(carry == 0) {
+                while(i < end && chunk[i] >= 0)
+                    chars[n++] = (char) chunk[i++];
+                if(i == end && !eof)
+                    continue;
+            }
+            ByteBuffer in = ByteBuffer.wrap(chunk, i, end - i);
+            CharBuffer out = CharBuffer.wrap(chars, n, chars.length - n);
+            decoder.decode(in, out, eof);
+            if(eof)
+                decoder.flush(out);
+            n = out.position();
+            carry = in.remaining();
+            System.arraycopy(chunk, in.position(), chunk, 0, carry);
+        }
+        return CharBuffer.wrap(chars, 0, n);
+    }
+}
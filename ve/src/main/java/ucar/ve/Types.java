@@ -30,6 +30,17 @@ public class Types
             return this;
         }
 
+        /**
+         * Replace the actions in place; this is how the passes
+         * that rewrite a program (Optimizer, PartialEvaluator)
+         * change a block, including a ProgramInterner.SharedBlock.
+         */
+        public void setActions(List<Action> actions)
+        {
+            clear();
+            addAll(actions);
+        }
+
         public void evaluate(Object state, VE ve)
             throws VEException
         {
@@ -44,9 +55,9 @@ public class Types
         {
             StringBuilder buf = new StringBuilder();
             buf.append('{');
-            for(int i=0;i<super.size();i++) {
+            for(int i = 0;i < size();i++) {
                 if(i > 0) buf.append(';');
-                buf.append(super.get(i).toString());
+                buf.append(get(i).toString());
             }
             buf.append('}');
             return buf.toString();
@@ -54,8 +65,27 @@ public class Types
 
     }
 
+    /**
+     * Receiver for actions delivered one at a time,
+     * e.g. by a streaming parse.
+     */
+    static public interface ActionHandler
+    {
+        public void handle(Action action) throws VEException;
+    }
+
     static public class ArgList extends ArrayList<Arg>
     {
+        public ArgList()
+        {
+            super();
+        }
+
+        public ArgList(int capacity)
+        {
+            super(capacity);
+        }
+
         public ArgList addArg(Arg x)
         {
             if(x != null) super.add(x);
@@ -65,26 +95,42 @@ public class Types
         public String getString(int index)
             throws VEException
         {
-            return super.get(index).asString();
+            return get(index).asString();
         }
 
         public String getWord(int index)
             throws VEException
         {
-            return super.get(index).asWord();
+            return get(index).asWord();
 
         }
 
         public Number getNumber(int index)
             throws VEException
         {
-            return super.get(index).asNumber();
+            return get(index).asNumber();
+        }
+
+        public long getLong(int index)
+            throws VEException
+        {
+            return get(index).asLong();
+        }
+
+        public double getDouble(int index)
+            throws VEException
+        {
+            return get(index).asDouble();
         }
 
+        /**
+         * A block that was skipped by a lazy parse
+         * is parsed here on first use; see Arg.forceBlock().
+         */
         public ActionList getBlock(int index)
             throws VEException
         {
-            return super.get(index).asBlock();
+            return get(index).forceBlock();
         }
     }
 
@@ -105,13 +151,65 @@ public class Types
 
     static public class Arg
     {
+        // What decode() found the value to be
+        static final byte TEXT = 0;   // nothing more than its text
+        static final byte LONG = 1;   // number holds the long
+        static final byte DOUBLE = 2; // number holds the bits of the double
+        static final byte WORD = 3;   // a valid word
+
         public ArgType type;
         public Object value;
+        protected byte kind = TEXT;
+        protected long number = 0; // one field for both, to keep Args small
 
         public Arg(ArgType type, Object value)
         {
             this.type = type;
             this.value = value;
+            decode();
+        }
+
+        /**
+         * A NUMBER whose value is already known,
+         * e.g. from the lexer.
+         */
+        public Arg(CharSequence text, long value)
+        {
+            this.type = ArgType.NUMBER;
+            this.value = text;
+            this.kind = LONG;
+            this.number = value;
+        }
+
+        /**
+         * Decode a NUMBER or check a WORD once, so that
+         * the accessors need not do so on every call.
+         */
+        protected void
+        decode()
+        {
+            if(type == ArgType.NUMBER) {
+                if(value instanceof Double || value instanceof Float) {
+                    kind = DOUBLE;
+                    number = Double.doubleToRawLongBits(((Number) value).doubleValue());
+                } else if(value instanceof Number) {
+                    kind = LONG;
+                    number = ((Number) value).longValue();
+                } else if(value instanceof CharSequence && VEParser.islong((CharSequence) value)) {
+                    CharSequence text = (CharSequence) value;
+                    kind = LONG;
+                    number = VEParser.parselong(text, 0, text.length());
+                } else if(value != null) {
+                    try {
+                        number = Double.doubleToRawLongBits(Double.parseDouble(value.toString()));
+                        kind = DOUBLE;
+                    } catch (NumberFormatException nfe) {
+                        // leave as TEXT; asNumber() will fail
+                    }
+                }
+            } else if(type == ArgType.WORD && value instanceof CharSequence
+                && VEParser.isword((CharSequence) value))
+                kind = WORD;
         }
 
         static public boolean compatible(ArgType arg, ArgType sig)
@@ -144,8 +242,10 @@ public class Types
 
         public Number asNumber()
         {
-            if(value instanceof Number)
-                return (Number) value;
+            if(kind == LONG)
+                return number;
+            if(kind == DOUBLE)
+                return Double.longBitsToDouble(number);
             try {
                 return Long.valueOf(this.value.toString()); // try this first
             } catch (NumberFormatException nfe1) {
@@ -157,32 +257,108 @@ public class Types
             }
         }
 
+        /**
+         * Neither allocates nor throws for a NUMBER that is a long.
+         */
+        public long asLong()
+        {
+            if(kind == LONG)
+                return number;
+            if(kind == DOUBLE)
+                throw new IllegalStateException("Arg is not an integer");
+            return asNumber().longValue();
+        }
+
+        /**
+         * Neither allocates nor throws for a NUMBER.
+         */
+        public double asDouble()
+        {
+            if(kind == LONG)
+                return (double) number;
+            if(kind == DOUBLE)
+                return Double.longBitsToDouble(number);
+            return asNumber().doubleValue();
+        }
+
         public String asWord()
         {
-            String sv = value.toString();
-            boolean ok = VEParser.WORDCHAR1.indexOf(sv.charAt(0)) >= 0;
-            if(ok) {
-                for(int i = 1;i < sv.length();i++) {
-                    if(VEParser.WORDCHARN.indexOf(sv.charAt(i)) < 0) {
-                        ok = false;
-                        break;
-                    }
-                }
-            }
-            if(!ok)
+            if(kind != WORD && !VEParser.isword(asString()))
                 throw new IllegalStateException("Cannot convert arg to word");
             return asString();
         }
 
         public ActionList asBlock()
         {
-            if(value instanceof ActionList)
-                return (ActionList) value;
+            try {
+                return forceBlock();
+            } catch (VEException vee) {
+                throw new IllegalStateException(vee);
+            }
+        }
+
+        /**
+         * A block that was skipped by a lazy parse is parsed on
+         * first use. The LazyBlock stays the value and keeps the
+         * result, so threads sharing the Arg parse it only once.
+         *
+         * @throws VEException if the block does not parse
+         */
+        public ActionList forceBlock()
+            throws VEException
+        {
+            Object v = this.value;
+            if(v instanceof VEParser.LazyBlock)
+                return ((VEParser.LazyBlock) v).parse();
+            if(v instanceof ActionList)
+                return (ActionList) v;
             throw new IllegalStateException("Arg cannot be converted to Block");
         }
 
     }
 
+    /**
+     * A substring of some larger text that is only
+     * materialized as a String when toString() is called.
+     * The String is kept once built.
+     */
+    static public class Span implements CharSequence
+    {
+        protected final CharSequence source;
+        protected final int start;
+        protected final int end;
+        protected String value = null;
+
+        public Span(CharSequence source, int start, int end)
+        {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+
+        public int length()
+        {
+            return this.end - this.start;
+        }
+
+        public char charAt(int index)
+        {
+            return this.source.charAt(this.start + index);
+        }
+
+        public CharSequence subSequence(int start, int end)
+        {
+            return new Span(this.source, this.start + start, this.start + end);
+        }
+
+        public String toString()
+        {
+            if(this.value == null)
+                this.value = this.source.subSequence(this.start, this.end).toString();
+            return this.value;
+        }
+    }
+
     static public class Position
     {
         public int lineno = 0;
@@ -251,7 +427,8 @@ public class Types
 
     static public class Configuration
     {
-        public String input = null;
+        public CharSequence input = null; // e.g. from ScriptLoader
+        public byte[] compiled = null; // used instead of input; see ProgramCodec
         public PrintWriter output = null;
         public Class format = null;
         public List<VerbDef> verbs = null;
@@ -260,6 +437,20 @@ public class Types
         public boolean debug = false;
         public boolean parsedebug = false;
         public boolean trace = false;
+        // Parse large inputs in parallel; see VEParser.CHUNKSIZE
+        public boolean parallel = false;
+        // Parse blocks on first use; see VEParser.LazyBlock
+        public boolean lazy = false;
+        // Share compiled programs between VEs; see ProgramCache
+        public ProgramCache cache = null;
+        // Apply the verbs' rewrite rules after parsing; see Optimizer
+        public boolean optimize = false;
+        // Share equal args, and equal blocks if positions
+        // are not kept, while parsing; see ProgramInterner
+        public boolean intern = false;
+        // Keep action positions; errors found while parsing
+        // are located either way
+        public boolean positions = true;
 
         public Configuration()
         {
@@ -267,7 +458,8 @@ public class Types
 
         public Configuration(Configuration cfg)
         {
-            this.input = (cfg.input != null ? cfg.input.trim() : null);
+            this.input = (cfg.input != null ? Util.trim(cfg.input) : null);
+            this.compiled = cfg.compiled;
             this.output = cfg.output;
             this.format = cfg.format;
             this.verbs = cfg.verbs;
@@ -275,6 +467,12 @@ public class Types
             this.debug = cfg.debug;
             this.parsedebug = cfg.parsedebug;
             this.trace = cfg.trace;
+            this.parallel = cfg.parallel;
+            this.lazy = cfg.lazy;
+            this.cache = cfg.cache;
+            this.optimize = cfg.optimize;
+            this.intern = cfg.intern;
+            this.positions = cfg.positions;
         }
     }
 
@@ -11,6 +11,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 abstract public class Util
 {
@@ -29,11 +30,11 @@ abstract public class Util
 
     ;
 
-    static int uid = 0; // for generating unique ids.
+    static final AtomicInteger uid = new AtomicInteger(0); // for generating unique ids.
 
     static int nextuid()
     {
-        return ++uid;
+        return uid.incrementAndGet();
     }
 
     static public String
@@ -206,13 +207,40 @@ abstract public class Util
             for(int i = 0;i < sig.length;i++)
                 sig[i] = params[i].getClass();
             // get the constructor
-            constructor = cl.getConstructor(sig);
+            constructor = findConstructor(cl, sig);
             // create instance
             o = constructor.newInstance(params);
         }
         return o;
     }
 
+    /**
+     * Find a public constructor that accepts arguments of the given
+     * classes; unlike Class.getConstructor, an argument may be of
+     * a subclass of the parameter type (e.g. a subclass of VE).
+     */
+    static protected Constructor<?>
+    findConstructor(Class<?> cl, Class<?>[] sig)
+        throws NoSuchMethodException
+    {
+        try {
+            return cl.getConstructor(sig);
+        } catch (NoSuchMethodException nsme) {
+            search:
+            for(Constructor<?> c : cl.getConstructors()) {
+                Class<?>[] formals = c.getParameterTypes();
+                if(formals.length != sig.length)
+                    continue;
+                for(int i = 0;i < sig.length;i++) {
+                    if(!formals[i].isAssignableFrom(sig[i]))
+                        continue search;
+                }
+                return c;
+            }
+            throw nsme;
+        }
+    }
+
     static public void
     runtimeCheck(Exception e)
     {
@@ -232,19 +260,28 @@ abstract public class Util
     readfile(String filename)
         throws IOException
     {
-        InputStream input = null;
-        if(filename == null)
-            input = System.in;
-        else
-            input = new FileInputStream(filename);
-        InputStreamReader rdr = new InputStreamReader(input, "UTF-8");
-        int c = 0;
-        StringBuilder buf = new StringBuilder();
-        while((c = rdr.read()) >= 0) {
-            buf.append((char) c);
-        }
-        input.close();
-        return buf.toString();
+        return ScriptLoader.load(filename).toString();
+    }
+
+    /**
+     * Equivalent of String.trim() for any CharSequence;
+     * the result is a view of text, not a copy,
+     * unless text is a String.
+     */
+    static public CharSequence
+    trim(CharSequence text)
+    {
+        if(text instanceof String)
+            return ((String) text).trim();
+        int start = 0;
+        int end = text.length();
+        while(start < end && text.charAt(start) <= ' ')
+            start++;
+        while(end > start && text.charAt(end - 1) <= ' ')
+            end--;
+        if(start == 0 && end == text.length())
+            return text;
+        return text.subSequence(start, end);
     }
 
     static int
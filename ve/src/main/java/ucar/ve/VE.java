@@ -7,6 +7,9 @@ package ucar.ve;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import static ucar.ve.Types.*;
 
@@ -24,9 +27,14 @@ public class VE
 
     protected Configuration config = null;
     protected ActionList program = null;
+    // The cached program this VE got from a ProgramCache;
+    // program is made from it only when asked for
+    protected CompiledProgram compiled = null;
 
     // All verb classes
     protected Map<String, Verb> verbs = new HashMap<>();
+    // Lookup table over verbs; built by loadVerbs()
+    protected VerbTable verbtable = null;
 
     //////////////////////////////////////////////////
     // Constructor(s)
@@ -40,8 +48,12 @@ public class VE
     {
         this();
         reset(configuration);
-        loadVerbs();
-        parse();
+        if(config.cache != null && config.compiled == null && config.input != null)
+            load(config.cache);
+        else {
+            loadVerbs();
+            parse();
+        }
     }
 
     public void
@@ -79,19 +91,155 @@ public class VE
         throws VEException
     {
         try {
+            if(this.config.compiled != null) {
+                this.program = ProgramCodec.decode(this.config.compiled, this.verbs);
+                return;
+            }
             if(this.config.input == null || this.config.input.length() == 0)
                 throw new VEException("Empty input");
             // Create the input parser
-            Parser parser = (Parser) Util.createClassInstance(config.format, this);
-            if(config.parsedebug)
-                parser.setDebugLevel(1);
+            Parser parser = newParser();
             parser.parse(this.config.input);
             this.program = parser.getProgram();
+            if(config.optimize)
+                new Optimizer().optimize(this.program);
         } catch (Exception e) {
             Util.runtimeCheck(e);
             throw new VEException(e);
         }
     }
+
+    /**
+     * Get the program from cache, loading the verbs and parsing
+     * only if it is missing; on a hit, this VE gets the cached
+     * verbs and evaluates the cached program, and makes its own
+     * copy of the program only if getProgram() is called.
+     */
+    protected void
+    load(ProgramCache cache)
+        throws VEException
+    {
+        ProgramCache.Key key = new ProgramCache.Key(config.input, config);
+        CompiledProgram compiled = cache.get(key, new Callable<CompiledProgram>()
+        {
+            public CompiledProgram call()
+                throws VEException
+            {
+                loadVerbs();
+                parse();
+                return compile();
+            }
+        });
+        if(this.program == null) {
+            this.verbs = new HashMap<>(compiled.getVerbs());
+            this.verbtable = null; // built if a parser asks for it
+            this.compiled = compiled;
+        }
+    }
+
+    //////////////////////////////////////////////////
+    // Validation
+
+    /**
+     * Check a script against the verbs of this VE without
+     * evaluating it. Nothing is thrown: every error found
+     * is returned, and the parse recovers after each one
+     * where the parser supports that (see Parser.diagnose).
+     */
+    public Diagnostics
+    diagnose(CharSequence script)
+    {
+        return diagnose(script, null);
+    }
+
+    /**
+     * Check a script with the given parser, which is reused
+     * by the caller, or with a new one if it is null.
+     */
+    protected Diagnostics
+    diagnose(CharSequence script, Parser parser)
+    {
+        Diagnostics diagnostics = new Diagnostics();
+        try {
+            if(parser == null)
+                parser = newParser();
+            parser.diagnose(script, diagnostics);
+        } catch (Exception e) {
+            diagnostics.add(e instanceof VEException ? (VEException) e : new VEException(e));
+        }
+        return diagnostics;
+    }
+
+    protected Parser
+    newParser()
+        throws VEException
+    {
+        Parser parser;
+        try {
+            parser = (Parser) Util.createClassInstance(config.format, this);
+        } catch (Exception e) {
+            Util.runtimeCheck(e);
+            throw new VEException(e);
+        }
+        if(config.parsedebug)
+            parser.setDebugLevel(1);
+        return parser;
+    }
+
+    /**
+     * Check a batch of scripts on the common pool.
+     *
+     * @return the diagnostics of each script, in order
+     */
+    public List<Diagnostics>
+    diagnose(List<? extends CharSequence> scripts)
+    {
+        return diagnose(scripts, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Check a batch of scripts on the given pool; the scripts
+     * are handed out in slices so that small scripts do not
+     * each cost a task, and each worker thread creates one
+     * parser and reuses it for all the scripts it checks.
+     *
+     * @return the diagnostics of each script, in order
+     */
+    public List<Diagnostics>
+    diagnose(final List<? extends CharSequence> scripts, ForkJoinPool pool)
+    {
+        final Diagnostics[] results = new Diagnostics[scripts.size()];
+        // Local to this call, so the parsers go when it returns
+        final ThreadLocal<Parser> parsers = new ThreadLocal<>();
+        int slices = Math.min(scripts.size(), 4 * pool.getParallelism());
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for(int i = 0;i < slices;i++) {
+            final int first = (int) ((long) scripts.size() * i / slices);
+            final int limit = (int) ((long) scripts.size() * (i + 1) / slices);
+            tasks.add(pool.submit(new Callable<Void>()
+            {
+                public Void call()
+                {
+                    Parser parser = parsers.get();
+                    if(parser == null) {
+                        try {
+                            parser = newParser();
+                            parsers.set(parser);
+                        } catch (VEException vee) {
+                            parser = null; // each diagnose() reports it
+                        }
+                    }
+                    for(int j = first;j < limit;j++)
+                        results[j] = diagnose(scripts.get(j), parser);
+                    return null;
+                }
+            }));
+        }
+        for(ForkJoinTask<?> task : tasks)
+            task.join();
+        return Arrays.asList(results);
+    }
+
     //////////////////////////////////////////////////
     // Execution
 
@@ -99,12 +247,27 @@ public class VE
     evaluate(Object state)
         throws VEException
     {
+        if(this.program == null && this.compiled != null) {
+            this.compiled.evaluate(state);
+            return;
+        }
         for(int i = 0;i < program.size();i++) {
             Action action = program.get(i);
             action.execute(state);
         }
     }
 
+    /**
+     * @return the program, copied so that it can be shared
+     * between threads; see CompiledProgram
+     */
+    public CompiledProgram
+    compile()
+        throws VEException
+    {
+        return new CompiledProgram(this);
+    }
+
     //////////////////////////////////////////////////
     // Accessors
 
@@ -117,6 +280,8 @@ public class VE
     public ActionList
     getProgram()
     {
+        if(this.program == null && this.compiled != null)
+            this.program = this.compiled.getProgram();
         return this.program;
     }
 
@@ -126,6 +291,14 @@ public class VE
         return this.verbs;
     }
 
+    public VerbTable
+    getVerbTable()
+    {
+        if(this.verbtable == null)
+            this.verbtable = new VerbTable(this.verbs);
+        return this.verbtable;
+    }
+
 
     //////////////////////////////////////////////////
     // Utilities
@@ -156,6 +329,7 @@ public class VE
             VerbDef def = config.verbs.get(i);
             loadVerbClass(def);
         }
+        this.verbtable = new VerbTable(this.verbs);
     }
 
 }
@@ -5,7 +5,22 @@ described in the file LICENSE.txt.
 
 package ucar.ve;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import static ucar.ve.Types.*;
 
@@ -39,6 +54,41 @@ public class VEParser extends Parser
      */
     static final public String WORDCHARN = WORDCHAR1 + ".";
 
+    /**
+     * Character classes, as bit flags; see charclass().
+     */
+    static final protected int CC_SPACE = 1;  // ignorable whitespace
+    static final protected int CC_WORD1 = 2;  // legal first char of a word
+    static final protected int CC_WORDN = 4;  // legal non-first char of a word
+    static final protected int CC_DIGIT = 8;  // decimal digit
+    static final protected int CC_SIGN = 16;  // leading sign of a number
+
+    /**
+     * Class table for the first 128 code points;
+     * derived from WORDCHAR1 and WORDCHARN so they cannot disagree.
+     */
+    static final protected byte[] CHARCLASS = new byte[128];
+
+    static {
+        for(int c = 0;c <= ' ';c++)
+            CHARCLASS[c] |= CC_SPACE;
+        CHARCLASS['\177'] |= CC_SPACE;
+        for(int i = 0;i < WORDCHAR1.length();i++)
+            CHARCLASS[WORDCHAR1.charAt(i)] |= CC_WORD1;
+        for(int i = 0;i < WORDCHARN.length();i++)
+            CHARCLASS[WORDCHARN.charAt(i)] |= CC_WORDN;
+        for(int c = '0';c <= '9';c++)
+            CHARCLASS[c] |= CC_DIGIT;
+        CHARCLASS['+'] |= CC_SIGN;
+        CHARCLASS['-'] |= CC_SIGN;
+    }
+
+    /**
+     * Digits of Long.MAX_VALUE; used to classify
+     * long digit strings without calling Long.parseLong.
+     */
+    static final String MAXLONG = Long.toString(Long.MAX_VALUE);
+
 
     /**
      * End-of-string marker
@@ -62,36 +112,131 @@ public class VEParser extends Parser
 
     /**
      * Equivalent of StringReader that allows for better
-     * access to position info
+     * access to position info.
+     * The text is any CharSequence (e.g. a String or CharBuffer)
+     * and is never copied.
      */
 
     static protected class TextStream
     {
 
         // Don't bother with getters
-        String text = null; // source of text to lex
+        CharSequence text = null; // source of text to lex
         int mark = 0;
         int next = 0; // next unread character
         int textlen = 0;
+        // Offsets of every '\n' in text, in increasing order;
+        // built once so that toPosition() is a binary search.
+        int[] newlines = null;
+        int nlines = 0;
+        // When text is only a piece of a larger input:
+        // the offset of text in that input, the number of
+        // newlines before it and the offset of the last of them.
+        long baseoffset = 0;
+        int baseline = 0;
+        long basenewline = 0;
 
-        public TextStream(String text)
+        public TextStream(CharSequence text)
         {
             this.textlen = text.length();
-            this.text = text + '\0'; // Null terminate
+            this.text = text;
             next = 0;
             mark = 0;
+            index();
+        }
+
+        public TextStream(CharSequence text, long offset, int lineno, long lastnewline)
+        {
+            this(text);
+            this.baseoffset = offset;
+            this.baseline = lineno;
+            this.basenewline = lastnewline;
+        }
+
+        /**
+         * Stream over text[start..end) of another stream,
+         * sharing its newline index so that positions are
+         * reported against the whole text.
+         */
+        public TextStream(TextStream base, int start, int end)
+        {
+            this.text = base.text;
+            this.textlen = end;
+            this.next = start;
+            this.mark = start;
+            this.newlines = base.newlines;
+            this.nlines = base.nlines;
+            this.baseoffset = base.baseoffset;
+            this.baseline = base.baseline;
+            this.basenewline = base.basenewline;
+        }
+
+        /**
+         * Record the offset of each newline in the text.
+         */
+        protected void
+        index()
+        {
+            int[] lines = new int[16];
+            int n = 0;
+            int i = 0;
+            if(text instanceof ScriptLoader.AsciiText) {
+                ScriptLoader.AsciiText ascii = (ScriptLoader.AsciiText) text;
+                for(;i + 8 <= this.textlen;i += 8) {
+                    long found = bytesequal(ascii.getLong(i), '\n');
+                    while(found != 0) {
+                        if(n == lines.length)
+                            lines = Arrays.copyOf(lines, 2 * n);
+                        lines[n++] = i + (Long.numberOfTrailingZeros(found) >>> 3);
+                        found &= found - 1;
+                    }
+                }
+            } else if(text instanceof String) {
+                String s = (String) text;
+                while((i = s.indexOf('\n', i)) >= 0 && i < this.textlen) {
+                    if(n == lines.length)
+                        lines = Arrays.copyOf(lines, 2 * n);
+                    lines[n++] = i++;
+                }
+                i = this.textlen;
+            } else if(text instanceof CharBuffer && ((CharBuffer) text).hasArray()) {
+                CharBuffer cb = (CharBuffer) text;
+                char[] chars = cb.array();
+                int base = cb.arrayOffset() + cb.position();
+                for(;i < this.textlen;i++) {
+                    if(chars[base + i] == '\n') {
+                        if(n == lines.length)
+                            lines = Arrays.copyOf(lines, 2 * n);
+                        lines[n++] = i;
+                    }
+                }
+            }
+            for(;i < this.textlen;i++) {
+                if(text.charAt(i) == '\n') {
+                    if(n == lines.length)
+                        lines = Arrays.copyOf(lines, 2 * n);
+                    lines[n++] = i;
+                }
+            }
+            this.newlines = lines;
+            this.nlines = n;
         }
 
         public String around(int where)
         {
-            String prefix = text.substring(where - 10, where);
-            String suffix = text.substring(where, where + 10);
+            String prefix = substring(Math.max(0, where - 10), where);
+            String suffix = substring(where, Math.min(textlen, where + 10));
             return prefix + "|" + suffix;
         }
 
         public String getText()
         {
-            return text.substring(0, this.textlen);
+            return substring(0, this.textlen);
+        }
+
+        public String substring(int start, int end)
+        {
+            return text.subSequence(start, end).toString();
         }
 
         public String toString()
@@ -101,21 +246,24 @@ public class VEParser extends Parser
 
         int peek()
         {
-            return text.charAt(next);
+            return (next < textlen ? text.charAt(next) : NULCHAR);
         }
 
+        /**
+         * Undo the last read(); must not be used
+         * after a read() that returned EOS.
+         */
         void
         backup()
         {
-            if(next <= 0)
-                next = 0;
-            else if(next < textlen)
+            if(next > 0)
                 next--;
         }
 
         int
         read()
         {
+            if(next >= textlen) return NULCHAR; // end of text
             char c = text.charAt(next);
             if(c != NULCHAR) next++;
             return c;
@@ -145,26 +293,187 @@ public class VEParser extends Parser
             return toPosition(this.getMark());
         }
 
+        /**
+         * Convert a text offset to a line/char position.
+         * The line number is the number of newlines preceding mark
+         * and the char number is measured from the last such newline.
+         */
         Position
         toPosition(int mark)
         {
-            int lineno = 0;
-            int linepos = 0;
-            for(int i = 0;i < mark;i++) {
-                if(text.charAt(i) == '\n') {
-                    lineno++;
-                    linepos = i;
-                }
+            long pos = toPacked(mark);
+            return new Position(Action.lineno(pos), Action.charno(pos));
+        }
+
+        /**
+         * @return the position of mark packed as by Action.pack()
+         */
+        long
+        toPacked(int mark)
+        {
+            // Binary search for the number of newlines before mark
+            int lo = 0;
+            int hi = this.nlines;
+            while(lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if(newlines[mid] < mark)
+                    lo = mid + 1;
+                else
+                    hi = mid;
             }
-            int charno = (mark - linepos);
-            return new Position(lineno, charno);
+            int lineno = baseline + lo;
+            long linepos = (lo == 0 ? basenewline : baseoffset + newlines[lo - 1]);
+            int charno = (int) (baseoffset + mark - linepos);
+            return Action.pack(lineno, charno);
         }
     }
 
 
+    /////////////////////////////////////////////////
+    // Splitter
+
+    /**
+     * Structural pre-scanner that finds the boundaries between
+     * top-level actions without building tokens or actions.
+     * It follows the lexer's rules for words, strings and comments
+     * so that a newline, '.' or ';' is only taken as a boundary
+     * when the lexer would return it as a token outside any block.
+     * Its state carries over between calls, so text may be
+     * presented a piece at a time.
+     */
+
+    static protected class Splitter
+    {
+        static final int NORMAL = 0;
+        static final int INWORD = 1;
+        static final int INSTRING = 2;
+        static final int INCOMMENT = 3;
+        static final int DONE = 4;
+        static final int INESCAPE = 5; // in a string, after ESCAPE
+
+        int state = NORMAL;
+        int depth = 0; // brace nesting
+        int delim = 0; // current string delimiter
+
+        /**
+         * Scan text[from..to) for the next top-level boundary.
+         * A '}' with no matching '{' or a NUL ends the parse,
+         * so it is reported as a final boundary.
+         *
+         * @return offset just past the boundary, or -1 if there
+         * is none in the range; in the latter case all of the
+         * range has been consumed.
+         */
+        public int
+        next(CharSequence text, int from, int to)
+        {
+            for(int i = from;i < to;i++) {
+                if(state == DONE)
+                    return -1;
+                char c = text.charAt(i);
+                switch (state) {
+                case INSTRING:
+                case INESCAPE:
+                    if(c == NULCHAR) {
+                        state = DONE;
+                        return i + 1;
+                    }
+                    if(state == INESCAPE)
+                        state = INSTRING;
+                    else if(c == delim)
+                        state = NORMAL;
+                    else if(c == ESCAPE)
+                        state = INESCAPE;
+                    continue;
+                case INCOMMENT:
+                    if(c != '\n' && c != NULCHAR) {
+                        i = endofline(text, i, to);
+                        if(i == to)
+                            return -1;
+                        c = text.charAt(i);
+                    }
+                    if(c == NULCHAR) {
+                        state = DONE;
+                        return i + 1;
+                    }
+                    if(c != '\n')
+                        continue;
+                    state = NORMAL;
+                    break; // the newline is a token
+                case INWORD:
+                    if((charclass(c) & CC_WORDN) != 0)
+                        continue;
+                    state = NORMAL;
+                    break; // c follows the word
+                default:
+                    break;
+                }
+                // state == NORMAL
+                switch (c) {
+                case NULCHAR:
+                    state = DONE;
+                    return i + 1;
+                case COMMENTCHAR:
+                    state = INCOMMENT;
+                    break;
+                case '"':
+                case '\'':
+                    state = INSTRING;
+                    delim = c;
+                    break;
+                case LBRACE:
+                    depth++;
+                    opened(i);
+                    break;
+                case RBRACE:
+                    if(depth == 0) {
+                        state = DONE;
+                        return i + 1;
+                    }
+                    depth--;
+                    closed(i);
+                    break;
+                case '\n':
+                case '.':
+                case ';':
+                    if(depth == 0)
+                        return i + 1;
+                    break;
+                default:
+                    if((charclass(c) & CC_WORD1) != 0)
+                        state = INWORD;
+                    break;
+                }
+            }
+            return -1;
+        }
+
+        public boolean
+        isDone()
+        {
+            return state == DONE;
+        }
+
+        /**
+         * Called for each LBRACE, and for each RBRACE that
+         * closes one, at the given offset; by default nothing.
+         */
+        protected void opened(int offset) {}
+
+        protected void closed(int offset) {}
+    }
+
     //////////////////////////////////////////////////
     // Lexer
 
+    /**
+     * Runs of blanks, comments and the newline index are found
+     * in bulk. The fastest path is an AsciiText from ScriptLoader,
+     * which is scanned eight chars at a time; a String uses
+     * indexOf and a direct charAt loop, and a CharBuffer with a
+     * backing array is scanned in the array. Any other
+     * CharSequence is read one charAt() at a time.
+     */
     static protected class Lexer
     {
         //////////////////////////////////////////////////
@@ -174,13 +483,30 @@ public class VEParser extends Parser
         int charno = 0;
         int lineno = 0;
         int tokenmark = -1; // allow pushback of a token
+        // Extent of the value of the most recent token in text;
+        // empty for delimiters.
+        int tokenstart = 0;
+        int tokenend = 0;
+        // Decoded value of the most recent token if it was a
+        // string containing escapes, else null.
+        String literal = null;
+        // Offsets of the next ESCAPE and NUL at or after the
+        // point they were last searched from, or textlen if none;
+        // kept so that finding them with indexOf stays linear.
+        int nextescape = -1;
+        int nextnul = -1;
 
         //////////////////////////////////////////////////
         // Constructor(s)
 
-        public Lexer(String text, Parser parser)
+        public Lexer(CharSequence text, Parser parser)
+        {
+            this(new TextStream(text), parser);
+        }
+
+        public Lexer(TextStream text, Parser parser)
         {
-            this.text = new TextStream(text);
+            this.text = text;
             this.parser = parser;
         }
 
@@ -194,22 +520,49 @@ public class VEParser extends Parser
          */
 
         protected int
-        yylex(StringBuilder yytext, Position yypos)
+        yylex(StringBuilder yytext)
+            throws VEException
+        {
+            int token = yylex();
+            yytext.setLength(0);
+            if(literal != null)
+                yytext.append(literal);
+            else
+                yytext.append(text.text, tokenstart, tokenend);
+            return token;
+        }
+
+        /**
+         * Span mode entry point for the scanner.
+         * Returns the next token; its value is left as the
+         * extent [tokenstart,tokenend) of the text and is not copied.
+         * See getTokenText() and getTokenSpan().
+         *
+         * The position of the token is not computed here;
+         * use getPosition() if it is needed.
+         *
+         * @return the token identifier corresponding to the next token.
+         */
+
+        protected int
+        yylex()
             throws VEException
         {
             int token = NONE;
             int c = 0;
-            yytext.setLength(0);
-            yypos.clear();
 
             if(tokenmark >= 0) {
                 text.setNext(tokenmark);
                 tokenmark = -1;
+                nextescape = -1;
+                nextnul = -1;
             }
 
+            literal = null;
             token = NONE;
             while(token == NONE) {
                 text.mark();
+                tokenstart = tokenend = text.getMark();
                 c = text.read();
                 if(c == EOS) {
                     token = EOF;
@@ -217,82 +570,195 @@ public class VEParser extends Parser
                     token = c;
                 else if(c == COMMENTCHAR) {
                     // move to end of line and return EOL or EOS
-                    for(;;) {
-                        c = text.read();
-                        if(c == EOS) {
-                            token = EOF;
-                            break;
-                        } else if(c == '\n') {
-                            token = c;
-                            break;
-                        }
+                    int end = skipcomment();
+                    if(end < text.textlen && text.text.charAt(end) == '\n') {
+                        text.next = end + 1;
+                        token = '\n';
+                    } else {
+                        text.next = end;
+                        token = EOF;
                     }
-                } else if(c <= ' ' || c == '\177') {
-                    /* whitespace: ignore */
+                } else if((charclass(c) & CC_SPACE) != 0) {
+                    /* whitespace: ignore the rest of the run too */
+                    text.next = skipblanks(text.text, text.next, text.textlen);
                 } else if(c == '"' || c == '\'') {
-                    int delim = c;
-                    boolean more = true;
-                    /* We have a string token */
-                    while(more && (c = text.read()) > 0) {
-                        switch (c) {
-                        case EOS:
-                            yypos.setPosition(text.toPosition());
-                            throw new VEException("Unterminated character or string constant").setPosition(yypos);
-                        case '"':
-                            more = (delim != c);
-                            break;
-                        case '\'':
-                            more = (delim != c);
-                            break;
-                        case ESCAPE:
-                            switch (c) {
-                            case 'r':
-                                c = '\r';
-                                break;
-                            case 'n':
-                                c = '\n';
-                                break;
-                            case 'f':
-                                c = '\f';
-                                break;
-                            case 't':
-                                c = '\t';
-                                break;
-                            default:
-                                break;
-                            }
-                            break;
-                        default:
-                            break;
-                        }
-                        if(more) yytext.append((char) c);
-                    }
+                    scanstring(c);
                     token = STRING;
-                } else if(WORDCHAR1.indexOf(c) >= 0) {
-                    yytext.append((char) c);
+                } else if((charclass(c) & CC_WORD1) != 0) {
+                    // Classify NUMBER vs WORD while scanning:
+                    // a number is an optional sign followed by digits
+                    // and must fit in a long.
+                    int cc = charclass(c);
+                    boolean numeric = true;
+                    boolean negative = (c == '-');
+                    int ndigits = ((cc & CC_DIGIT) != 0 ? 1 : 0);
+                    if((cc & (CC_DIGIT | CC_SIGN)) == 0)
+                        numeric = false;
                     for(;;) {
                         c = text.read();
-                        if(WORDCHARN.indexOf(c) < 0) break; // not a word character
-                        yytext.append((char) c);
+                        cc = charclass(c);
+                        if((cc & CC_WORDN) == 0) break; // not a word character
+                        if((cc & CC_DIGIT) == 0)
+                            numeric = false;
+                        else
+                            ndigits++;
                     }
+                    // exclude the delimiter, which is not consumed at EOS
+                    tokenend = (c == EOS ? text.next : text.next - 1);
                     // pushback the delimiter
-                    text.backup();
-                    try {// See if this looks like an integer
-                        long num = Long.parseLong(yytext.toString());
+                    if(c != EOS)
+                        text.backup();
+                    if(numeric && ndigits > 0
+                        && fitslong(text.text, tokenend - ndigits, tokenend, negative))
                         token = NUMBER;
-                    } catch (NumberFormatException nfe) {
+                    else
                         token = WORD;
-                    }
                 } else {// Treat as a single char delimiter
                     token = c;
                 }
             }
-            yypos.setPosition(text.toPosition());
             if(parser.getDebugLevel() > 0)
-                System.err.println("TOKEN = |" + dumptoken(token, yytext.toString()) + "|");
+                System.err.println("TOKEN = |" + dumptoken(token, getTokenText()) + "|");
             return token; // Return the type of the token
         }
 
+        /**
+         * Scan a string constant whose opening delimiter has been read.
+         * The closing delimiter is found with indexOf when the text is
+         * a String; the value is then left as a span of the text.
+         * Only a constant containing an escape is decoded and copied.
+         * Escapes are \r, \n, \f and \t; a backslash before any
+         * other char stands for that char if it is a delimiter or a
+         * backslash, and is otherwise kept as is.
+         */
+        protected void
+        scanstring(int delim)
+            throws VEException
+        {
+            CharSequence src = text.text;
+            int limit = text.textlen;
+            int start = text.next;
+            // Find the first delimiter, escape or NUL
+            int stop;
+            if(src instanceof String) {
+                String s = (String) src;
+                stop = s.indexOf(delim, start);
+                if(stop < 0 || stop > limit)
+                    stop = limit;
+                if(nextescape < start)
+                    nextescape = find(s, ESCAPE, start, limit);
+                if(nextnul < start)
+                    nextnul = find(s, NULCHAR, start, limit);
+                stop = Math.min(stop, Math.min(nextescape, nextnul));
+            } else {
+                for(stop = start;stop < limit;stop++) {
+                    char c = src.charAt(stop);
+                    if(c == delim || c == ESCAPE || c == NULCHAR)
+                        break;
+                }
+            }
+            tokenstart = start;
+            if(stop < limit && src.charAt(stop) == delim) {
+                tokenend = stop;
+                text.next = stop + 1;
+                return;
+            }
+            // Decode the rest
+            StringBuilder buf = new StringBuilder();
+            buf.append(src, start, stop);
+            int i = stop;
+            for(;;) {
+                char c = (i < limit ? src.charAt(i++) : NULCHAR);
+                if(c == delim)
+                    break;
+                if(c == ESCAPE) {
+                    c = (i < limit ? src.charAt(i++) : NULCHAR);
+                    switch (c) {
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case '"':
+                    case '\'':
+                    case ESCAPE:
+                    case NULCHAR:
+                        break;
+                    default:
+                        buf.append(ESCAPE);
+                        break;
+                    }
+                }
+                if(c == NULCHAR)
+                    throw new VEException("Unterminated character or string constant").setPosition(text.toPosition());
+                buf.append(c);
+            }
+            tokenend = i - 1;
+            text.next = i;
+            literal = buf.toString();
+        }
+
+        /**
+         * Find the end of the comment whose COMMENTCHAR has
+         * been read: the offset of the next '\n' or NUL, or textlen.
+         * When the text is a String the newline is found with
+         * indexOf, which the JIT compiles to a vectorized search,
+         * and the NUL comes from the same cache as scanstring() uses.
+         */
+        protected int
+        skipcomment()
+        {
+            CharSequence src = text.text;
+            int limit = text.textlen;
+            int start = text.next;
+            if(src instanceof String) {
+                String s = (String) src;
+                if(nextnul < start)
+                    nextnul = find(s, NULCHAR, start, limit);
+                return Math.min(find(s, '\n', start, limit), nextnul);
+            }
+            return endofline(src, start, limit);
+        }
+
+        /**
+         * @return the offset of c in s[from..limit), or limit
+         */
+        static protected int
+        find(String s, char c, int from, int limit)
+        {
+            int i = s.indexOf(c, from);
+            return (i < 0 || i > limit ? limit : i);
+        }
+
+        /**
+         * @return the value of the most recent token as a String
+         */
+        public String getTokenText()
+        {
+            if(literal != null)
+                return literal;
+            return text.substring(tokenstart, tokenend);
+        }
+
+        /**
+         * @return the value of the most recent token
+         * as a Span over the text; nothing is copied
+         * unless the token was a string with escapes.
+         */
+        public Span getTokenSpan()
+        {
+            if(literal != null)
+                return new Span(literal, 0, literal.length());
+            return new Span(text.text, tokenstart, tokenend);
+        }
+
         /**
          * Allow a one token pushback
          */
@@ -302,12 +768,175 @@ public class VEParser extends Parser
         }
 
 
+        /**
+         * @return the position of the most recently lexed token
+         */
         public Position getPosition()
         {
             return text.toPosition();
         }
     }
 
+    //////////////////////////////////////////////////
+    // Streaming
+
+    /**
+     * Initial size of the sliding buffer used when parsing
+     * from a Reader; it only grows if a single top-level
+     * action does not fit.
+     */
+    static final public int STREAMBUFSIZE = 1 << 16;
+
+    /**
+     * Target number of chars per chunk in a parallel parse;
+     * texts shorter than two chunks are parsed sequentially.
+     */
+    static final public int CHUNKSIZE = 1 << 20;
+
+    /**
+     * Pull parser over a Reader. Text is read into a bounded
+     * sliding buffer; as soon as the buffer holds one or more
+     * complete top-level actions (see Splitter) they are parsed
+     * and handed out, and their text is discarded.
+     * Nothing refers back to the buffer, so memory use
+     * does not depend on the size of the input.
+     */
+
+    protected class ActionStream implements Iterator<Action>
+    {
+        Reader input = null;
+        char[] buf = new char[STREAMBUFSIZE];
+        CharBuffer view = CharBuffer.wrap(buf);
+        int start = 0;   // first unparsed char in buf
+        int scanned = 0; // first char not yet seen by the splitter
+        int fill = 0;    // number of chars in buf
+        boolean eof = false;
+        boolean finished = false;
+        Splitter splitter = new Splitter();
+        // Location of buf[start] in the whole input
+        long offset = 0;
+        int lineno = 0;
+        long lastnewline = 0;
+        // Parsed but not yet delivered
+        ActionList pending = new ActionList();
+        int npending = 0;
+
+        public ActionStream(Reader input)
+        {
+            this.input = input;
+        }
+
+        public boolean
+        hasNext()
+        {
+            try {
+                return fetch();
+            } catch (VEException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public Action
+        next()
+        {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            return pending.get(npending++);
+        }
+
+        public void
+        remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Make sure there is an undelivered action, if any remain.
+         */
+        protected boolean
+        fetch()
+            throws VEException
+        {
+            while(npending >= pending.size()) {
+                if(finished)
+                    return false;
+                pending.clear();
+                npending = 0;
+                // Find the last boundary in the buffered text,
+                // reading more until there is one.
+                int end = -1;
+                for(;;) {
+                    int b;
+                    while(!splitter.isDone()
+                        && (b = splitter.next(view, scanned, fill)) >= 0)
+                        end = scanned = b;
+                    if(!splitter.isDone())
+                        scanned = fill;
+                    if(end >= 0 || splitter.isDone() || eof)
+                        break;
+                    fill();
+                }
+                if(splitter.isDone())
+                    finished = true; // end is the final boundary
+                else if(end < 0) {
+                    end = fill; // the rest of the input
+                    finished = true;
+                }
+                segment(start, end);
+                start = end;
+            }
+            return true;
+        }
+
+        /**
+         * Read more text, first sliding the unparsed
+         * text to the front of the buffer.
+         */
+        protected void
+        fill()
+            throws VEException
+        {
+            if(start > 0) {
+                System.arraycopy(buf, start, buf, 0, fill - start);
+                scanned -= start;
+                fill -= start;
+                start = 0;
+            }
+            if(fill == buf.length) {
+                buf = Arrays.copyOf(buf, 2 * buf.length);
+                view = CharBuffer.wrap(buf);
+            }
+            try {
+                int n = input.read(buf, fill, buf.length - fill);
+                if(n < 0)
+                    eof = true;
+                else
+                    fill += n;
+            } catch (IOException ioe) {
+                throw new VEException(ioe);
+            }
+        }
+
+        /**
+         * Parse buf[first..last) into pending.
+         */
+        protected void
+        segment(int first, int last)
+            throws VEException
+        {
+            String text = new String(buf, first, last - first);
+            TextStream ts = new TextStream(text, offset, lineno, lastnewline);
+            lexer = new Lexer(ts, VEParser.this);
+            parseActions(pending);
+            // Advance the location past this segment
+            if(ts.nlines > 0)
+                lastnewline = offset + ts.newlines[ts.nlines - 1];
+            lineno += ts.nlines;
+            offset += text.length();
+            lexer = null;
+        }
+    }
+
     //////////////////////////////////////////////////
     // Parser
 
@@ -315,6 +944,13 @@ public class VEParser extends Parser
     // Parser state
 
     Lexer lexer = null;
+    // If not null, errors are collected here rather than thrown
+    Diagnostics diagnostics = null;
+    // Extents of the blocks within a LazyBlock being parsed
+    Map<Integer, Integer> blockends = null;
+    VerbTable verbtable = null;
+    // Shares equal args and blocks; see Configuration.intern
+    ProgramInterner interner = null;
 
 
     //////////////////////////////////////////////////
@@ -324,6 +960,20 @@ public class VEParser extends Parser
         throws VEException
     {
         super(ve);
+        this.verbtable = ve.getVerbTable();
+    }
+
+    //////////////////////////////////////////////////
+    // Accessors
+
+    /**
+     * @return the interner of the last parse, if
+     * Configuration.intern was set, else null
+     */
+    public ProgramInterner
+    getInterner()
+    {
+        return this.interner;
     }
 
     //////////////////////////////////////////////////
@@ -339,163 +989,841 @@ public class VEParser extends Parser
     parse(String text)
         throws VEException
     {
+        parse((CharSequence) text);
+    }
+
+    /**
+     * Parse directly from any CharSequence; tokens are
+     * kept as spans over the text and argument strings
+     * are only materialized when their value is read.
+     */
+    @Override
+    public void
+    parse(CharSequence text)
+        throws VEException
+    {
+        if(cfg.parallel && text.length() >= 2 * CHUNKSIZE) {
+            parse(text, ForkJoinPool.commonPool());
+            return;
+        }
         this.lexer = new Lexer(text, this);
-        StringBuilder yytext = new StringBuilder();
-        Position yypos = new Position(0, 0);
         ActionList actions = new ActionList();
         this.program = actions;
-        parseR(actions, yytext, yypos);
+        parseActions(actions);
     }
 
     /**
-     * Recursive parser
+     * Parse in parallel: the text is pre-scanned with a Splitter
+     * for top-level action boundaries, cut into chunks of roughly
+     * CHUNKSIZE chars at those boundaries, and the chunks are
+     * parsed on the pool. The chunk results are joined in order.
+     * If several chunks fail, the error from the earliest one
+     * is thrown, which is the error a sequential parse reports.
      */
-    protected void
-    parseR(ActionList actions, StringBuilder yytext, Position yypos)
+    public void
+    parse(CharSequence text, ForkJoinPool pool)
         throws VEException
     {
-        String errmsg = null;
-        int token = NONE;
-        Action action = null;
+        parse(text, pool, CHUNKSIZE);
+    }
 
-        // Non-recursive parser read action per loop
-        actionloop:
-        for(;;) {
-            token = lexer.yylex(yytext, yypos);
-            if(cfg.parsedebug)
-                System.err.println("parser: reading token: " + dumptoken(token, yytext.toString()));
-            if(token == EOF) {
-                break actionloop;
+    /**
+     * Result of parsing one chunk; errors are carried back
+     * rather than thrown so they keep their position.
+     */
+    static protected class Chunk
+    {
+        ActionList actions = null;
+        VEException error = null;
+    }
+
+    /**
+     * As parse(text, pool), with chunks of about chunksize chars;
+     * small chunks exercise the joins, e.g. in tests.
+     */
+    public void
+    parse(CharSequence text, ForkJoinPool pool, int chunksize)
+        throws VEException
+    {
+        final TextStream whole = new TextStream(text);
+        // Find the split points
+        List<Integer> splits = new ArrayList<>();
+        splits.add(0);
+        Splitter splitter = new Splitter();
+        int last = 0;
+        int end = text.length();
+        for(int b = 0;(b = splitter.next(text, b, end)) >= 0;) {
+            if(splitter.isDone()) {
+                end = b; // nothing after this is parsed
+                break;
             }
-            switch (token) {
-            case '.': // => EOL
-            case '\n': // => EOL
-                continue actionloop;
-            case RBRACE:
-                lexer.pushback();
-                break actionloop;
-            case WORD: // Verb
-                String name = yytext.toString();
-                Verb verb = ve.getVerbs().get(name.toLowerCase());
-                if(verb == null) {
-                    errmsg = String.format("Unknown verb: %s", name);
-                    break actionloop;
+            if(b - last >= chunksize) {
+                splits.add(b);
+                last = b;
+            }
+        }
+        if(last < end)
+            splits.add(end);
+        // Parse the chunks
+        List<ForkJoinTask<Chunk>> tasks = new ArrayList<>();
+        for(int i = 0;i + 1 < splits.size();i++) {
+            final int first = splits.get(i);
+            final int limit = splits.get(i + 1);
+            tasks.add(pool.submit(new Callable<Chunk>()
+            {
+                public Chunk call()
+                {
+                    Chunk result = new Chunk();
+                    try {
+                        VEParser chunk = new VEParser(ve);
+                        chunk.debuglevel = debuglevel;
+                        chunk.lexer = new Lexer(new TextStream(whole, first, limit), chunk);
+                        result.actions = new ActionList();
+                        chunk.parseActions(result.actions);
+                    } catch (VEException vee) {
+                        result.error = vee;
+                    }
+                    return result;
                 }
-                action = new Action(verb);
-                action.setPosition(lexer.getPosition());
-                collectargs(action, yytext, yypos);
-                actions.add(action);
-                break;
+            }));
+        }
+        // Join in order
+        ActionList actions = new ActionList();
+        for(int i = 0;i < tasks.size();i++) {
+            Chunk chunk;
+            try {
+                chunk = tasks.get(i).get();
+            } catch (ExecutionException ee) {
+                throw new VEException(ee.getCause());
+            } catch (InterruptedException ie) {
+                throw new VEException(ie);
+            }
+            if(chunk.error != null) {
+                for(int j = i + 1;j < tasks.size();j++)
+                    tasks.get(j).cancel(false);
+                throw chunk.error;
+            }
+            actions.addAll(chunk.actions);
+        }
+        this.program = actions;
+    }
 
-            default:
-                errmsg = String.format("Expected %s, found: %s",
-                    "Verb", yytext.toString());
-                break actionloop;
+    /**
+     * Parse a Reader incrementally, handing each top-level
+     * action to the handler as soon as it is complete.
+     * The actions are not accumulated, so getProgram()
+     * returns null afterwards.
+     */
+    public void
+    parse(Reader input, ActionHandler handler)
+        throws VEException
+    {
+        this.program = null;
+        ActionStream stream = new ActionStream(input);
+        while(stream.fetch())
+            handler.handle(stream.next());
+    }
+
+    /**
+     * Parse a byte channel of UTF-8 text incrementally;
+     * see parse(Reader,ActionHandler).
+     */
+    public void
+    parse(ReadableByteChannel input, ActionHandler handler)
+        throws VEException
+    {
+        parse(Channels.newReader(input, Util.UTF8.newDecoder(), -1), handler);
+    }
+
+    /**
+     * Parse a Reader incrementally, returning the top-level
+     * actions through an iterator. A parse error is thrown
+     * from hasNext() or next() as an IllegalStateException
+     * whose cause is the VEException.
+     */
+    public Iterator<Action>
+    iterator(Reader input)
+    {
+        this.program = null;
+        return new ActionStream(input);
+    }
+
+    /**
+     * Parse text into an unbound program: the verbs are not
+     * looked up and the signatures are not checked. Bind the
+     * result to any number of verb tables with a Binder.
+     */
+    public ActionList
+    parseUnbound(CharSequence text)
+        throws VEException
+    {
+        this.lexer = new Lexer(text, this);
+        ActionList actions = new ActionList();
+        parseActions(actions, false);
+        return actions;
+    }
+
+    /**
+     * The body of a block argument that has only been skipped over
+     * (see Configuration.lazy). It is parsed the first time it is
+     * used, e.g. by ArgList.getBlock(), and the result is kept;
+     * errors in the body are reported then rather than by the
+     * parse that skipped it. Threads that use it at once wait
+     * for one parse.
+     */
+    static public class LazyBlock
+    {
+        protected VE ve = null;
+        protected TextStream text = null;
+        protected int start = 0; // just past the LBRACE
+        protected int end = 0;   // just past the RBRACE
+        protected Map<Integer, Integer> ends = null; // see skipblock()
+        protected volatile ActionList block = null; // set once parsed
+
+        LazyBlock(VE ve, TextStream text, int start, int end, Map<Integer, Integer> ends)
+        {
+            this.ve = ve;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.ends = ends;
+        }
+
+        /**
+         * @return the actions of the block, parsing them if needed
+         */
+        public ActionList
+        parse()
+            throws VEException
+        {
+            ActionList block = this.block;
+            if(block != null)
+                return block;
+            synchronized(this) {
+                if(this.block == null) {
+                    // The closing brace is included so that a missing
+                    // terminator before it is caught as in a full parse.
+                    VEParser parser = new VEParser(ve);
+                    parser.lexer = new Lexer(new TextStream(text, start, end), parser);
+                    parser.blockends = this.ends;
+                    ActionList actions = new ActionList();
+                    parser.parseActions(actions);
+                    this.text = null;
+                    this.ends = null;
+                    this.block = actions;
+                }
+                return this.block;
             }
         }
-        if(errmsg != null) {
-            if(action == null)
-                throw new VEException(errmsg);
-            else
-                throw new VEException(errmsg).setPosition(action.getPosition());
+
+        public String
+        toString()
+        {
+            try {
+                return parse().toString();
+            } catch (VEException vee) {
+                return "{" + vee.getMessage() + "}";
+            }
         }
     }
 
+    /**
+     * Skip the body of a block whose LBRACE has just been read,
+     * counting braces and passing over strings and comments.
+     * The extents of the blocks nested in it are recorded
+     * as they are passed, so that when it is parsed its own
+     * blocks can be skipped without scanning them again.
+     */
+    protected LazyBlock
+    skipblock()
+        throws VEException
+    {
+        final TextStream ts = lexer.text;
+        int start = ts.next;
+        Integer known = (blockends == null ? null : blockends.get(start));
+        if(known != null) {
+            ts.setNext(known);
+            return new LazyBlock(ve, ts, start, known, blockends);
+        }
+        final Map<Integer, Integer> ends = new HashMap<>();
+        Splitter splitter = new Splitter() // a top-level '}' ends the block
+        {
+            List<Integer> open = new ArrayList<>();
+
+            protected void opened(int offset)
+            {
+                open.add(offset + 1);
+            }
+
+            protected void closed(int offset)
+            {
+                ends.put(open.remove(open.size() - 1), offset + 1);
+            }
+        };
+        int pos = start;
+        for(;;) {
+            int b = splitter.next(ts.text, pos, ts.textlen);
+            if(b < 0)
+                throw new VEException("Unclosed block").setPosition(ts.toPosition(ts.textlen));
+            if(splitter.isDone()) {
+                if(ts.text.charAt(b - 1) != RBRACE) // NUL
+                    throw new VEException("Unclosed block").setPosition(ts.toPosition(b - 1));
+                ts.setNext(b);
+                return new LazyBlock(ve, ts, start, b, (ends.isEmpty() ? null : ends));
+            }
+            pos = b;
+        }
+    }
+
+    /**
+     * State of one nesting level of the parse:
+     * the list of actions in a block (or the whole program)
+     * and the action, if any, whose arguments are being collected.
+     */
+    static protected class Frame
+    {
+        ActionList actions = null;
+        Action action = null;
+        ArgList args = null;
+        ParenState parenstate = ParenState.NONE;
+        int mark = 0; // text offset of action's verb, even if its position is not kept
+
+        Frame(ActionList actions)
+        {
+            this.actions = actions;
+        }
+    }
+
+    /**
+     * Parse actions into the given list until EOF or an unmatched
+     * right brace. Nested blocks are handled with an explicit
+     * stack of frames rather than by recursion, so nesting depth
+     * is limited only by the heap.
+     */
+    protected void
+    parseActions(ActionList actions)
+        throws VEException
+    {
+        parseActions(actions, true);
+    }
+
+    /**
+     * @param bind look up the verbs and check the signatures;
+     *             if false the actions are left unbound
+     */
     protected void
-    collectargs(Action action, StringBuilder yytext, Position yypos)
+    parseActions(ActionList actions, boolean bind)
         throws VEException
     {
-        String errmsg = null;
-        ArgList args = new ArgList();
         int token = NONE;
-        ParenState parenstate = ParenState.NONE; /* track if we are inside parens */
+        List<Frame> stack = new ArrayList<>();
+        Frame top = new Frame(actions);
+        ProgramInterner interner = null;
+        if(bind && cfg.intern && diagnostics == null) {
+            if(this.interner == null)
+                this.interner = new ProgramInterner(cfg.positions);
+            interner = this.interner;
+        }
 
-        // read arg per loop upto end of action
-        boolean more = true;
-        for(int i = 0;more && errmsg == null;i++) {
-            Arg arg = null;
-            token = lexer.yylex(yytext, yypos);
+        parseloop:
+        for(;;) {
+            token = nexttoken();
+            if(cfg.parsedebug)
+                System.err.println("parser: reading token: " + dumptoken(token, lexer.getTokenText()));
+            if(top.action == null) {
+                // Looking for the verb of the next action
+                switch (token) {
+                case '.': // => EOL
+                case '\n': // => EOL
+                    continue parseloop;
+                case EOF:
+                case RBRACE:
+                    if(stack.isEmpty()) {
+                        if(token == RBRACE) {
+                            if(diagnostics != null) {
+                                // Ends the program, but is most likely a mistake
+                                error("Too many " + RBRACE, lexer.getPosition());
+                                continue parseloop;
+                            }
+                            lexer.pushback();
+                        }
+                        break parseloop;
+                    }
+                    if(token != RBRACE) {
+                        error("Unclosed block", lexer.getPosition());
+                        break parseloop;
+                    }
+                    // The block is complete; resume its parent's arguments
+                    Frame parent = stack.remove(stack.size() - 1);
+                    parent.args.add(interner != null ? interner.block(top.actions)
+                        : new Arg(ArgType.BLOCK, top.actions));
+                    top = parent;
+                    continue parseloop;
+                case WORD: // Verb
+                    if(!bind) {
+                        top.action = new Action(lexer.getTokenText());
+                        setposition(top);
+                        top.args = new ArgList();
+                        top.parenstate = ParenState.NONE;
+                        continue parseloop;
+                    }
+                    Verb verb = verbtable.lookup(lexer.text.text, lexer.tokenstart, lexer.tokenend);
+                    if(verb == null) {
+                        error(String.format("Unknown verb: %s", lexer.getTokenText()), lexer.getPosition());
+                        // Recover: collect its arguments without checking them
+                        top.action = new Action(lexer.getTokenText());
+                        setposition(top);
+                        top.args = new ArgList();
+                        top.parenstate = ParenState.NONE;
+                        continue parseloop;
+                    }
+                    top.action = new Action(verb);
+                    setposition(top);
+                    top.args = new ArgList(top.action.arity()); // usually exact
+                    top.parenstate = ParenState.NONE; /* track if we are inside parens */
+                    continue parseloop;
+                default:
+                    error(String.format("Expected %s, found: %s",
+                        "Verb", lexer.getTokenText()), lexer.getPosition());
+                    if(token != ';')
+                        skip(token == LBRACE ? 1 : 0);
+                    continue parseloop;
+                }
+            }
+            // Collecting the arguments of top.action
             switch (token) {
             case EOF:
             case '.':
             case ';':
             case '\n':
-                more = false;
+                finishaction(top, bind);
                 break;
             case LBRACE:
-                ActionList block = new ActionList();
-                parseR(block, yytext, yypos);
-                token = lexer.yylex(yytext, yypos);
-                if(token != RBRACE)
-                    errmsg = "Unclosed block";
-		        args.add(new Arg(ArgType.BLOCK,block));
+                if(bind && cfg.lazy && diagnostics == null) {
+                    top.args.add(new Arg(ArgType.BLOCK, skipblock()));
+                    break;
+                }
+                stack.add(top);
+                top = new Frame(new ActionList());
                 break;
             case RBRACE:
-                errmsg = "Too many " + RBRACE;
+                error("Too many " + RBRACE, lexer.getPosition());
+                // Recover: take it as closing the block after this action
+                finishaction(top, bind);
+                if(!stack.isEmpty())
+                    lexer.pushback();
                 break;
             case LPAREN:
-                if(parenstate != ParenState.NONE)
-                    errmsg = "Too many parentheses";
+                if(top.parenstate != ParenState.NONE)
+                    error("Too many parentheses", lexer.getPosition());
                 else
-                    parenstate = ParenState.LEFT;
+                    top.parenstate = ParenState.LEFT;
                 break;
             case RPAREN:
-                switch (parenstate) {
+                switch (top.parenstate) {
                 case NONE:
-                    errmsg = "Parentheses mismatch";
+                    error("Parentheses mismatch", lexer.getPosition());
                     break;
                 case RIGHT:
-                    errmsg = "Too many parentheses";
+                    error("Too many parentheses", lexer.getPosition());
                     break;
                 case LEFT:
-                    parenstate = ParenState.RIGHT;
+                    top.parenstate = ParenState.RIGHT;
                     break;
                 }
                 break;
             case WORD:
-                if(parenstate == ParenState.RIGHT)
-                    errmsg = "Arguments after right parenthesis";
-                else
-                    args.add(new Arg(ArgType.WORD, yytext.toString()));
+                if(top.parenstate == ParenState.RIGHT)
+                    error("Arguments after right parenthesis", lexer.getPosition());
+                top.args.add(interner != null ? interner.arg(ArgType.WORD, lexer.getTokenText())
+                    : new Arg(ArgType.WORD, lexer.getTokenSpan()));
                 break;
             case STRING:
-                if(parenstate == ParenState.RIGHT)
-                    errmsg = "Arguments after right parenthesis";
-                else
-                    args.add(new Arg(ArgType.STRING, yytext.toString()));
+                if(top.parenstate == ParenState.RIGHT)
+                    error("Arguments after right parenthesis", lexer.getPosition());
+                top.args.add(interner != null ? interner.arg(ArgType.STRING, lexer.getTokenText())
+                    : new Arg(ArgType.STRING, lexer.getTokenSpan()));
                 break;
             case NUMBER:
-                if(parenstate == ParenState.RIGHT)
-                    errmsg = "Arguments after right parenthesis";
-                else
-                    args.add(new Arg(ArgType.NUMBER, yytext.toString()));
+                if(top.parenstate == ParenState.RIGHT)
+                    error("Arguments after right parenthesis", lexer.getPosition());
+                long value = parselong(lexer.text.text, lexer.tokenstart, lexer.tokenend);
+                top.args.add(interner != null ? interner.number(lexer.getTokenText(), value)
+                    : new Arg(lexer.getTokenSpan(), value));
                 break;
             default:
-                errmsg = String.format("Expected %s, found: %s",
-                    "Argument", yytext.toString());
+                error(String.format("Expected %s, found: %s",
+                    "Argument", lexer.getTokenText()), lexer.getPosition());
                 break;
             }
         }
-        if(errmsg != null)
-            throw new VEException(errmsg).setPosition(yypos);
-        // Validate against the signature
-        List<ArgType> signature = action.getSignature();
-        if(signature.size() != args.size())
-            throw new VEException("Mismatch in number of arguments")
-                .setPosition(action.getPosition());
-        for(int i = 0;i < signature.size();i++) {
-            ArgType at = signature.get(i);
-            Arg arg = args.get(i);
-            if(!Arg.compatible(arg.type, at))
-                throw new VEException("Type mismatch for argument " + i)
-                    .setPosition(action.getPosition());
+    }
+
+    /**
+     * Record the position of the verb just read: its offset in
+     * the frame, for errors found when the action is finished,
+     * and its line and char in the action unless
+     * Configuration.positions is off.
+     */
+    protected void
+    setposition(Frame frame)
+    {
+        frame.mark = lexer.text.getMark();
+        if(cfg.positions)
+            frame.action.setPackedPosition(lexer.text.toPacked(frame.mark));
+    }
+
+    /**
+     * Validate the collected arguments of frame.action
+     * against the verb signature, if bound,
+     * and add the action to the frame.
+     */
+    protected void
+    finishaction(Frame frame, boolean bind)
+        throws VEException
+    {
+        Action action = frame.action;
+        ArgList args = frame.args;
+        if(bind && action.isBound()) {
+            String msg = Binder.mismatch(action, args);
+            if(msg != null)
+                error(msg, lexer.text.toPosition(frame.mark));
         }
         action.setArgs(args);
+        frame.actions.add(action);
+        frame.action = null;
+        frame.args = null;
+    }
+
+    //////////////////////////////////////////////////
+    // Errors and recovery
+
+    /**
+     * Report an error at pos. It is thrown, unless diagnostics
+     * are being collected, in which case it is recorded and
+     * the caller recovers and goes on.
+     * The position is that of the offending token, which does
+     * not depend on whether an earlier action happened to be
+     * in the same parse, or of the action that does not fit
+     * its verb.
+     */
+    protected void
+    error(String msg, Position pos)
+        throws VEException
+    {
+        if(diagnostics == null)
+            throw new VEException(msg).setPosition(pos);
+        diagnostics.add(msg, pos);
+    }
+
+    /**
+     * @return the next token; when collecting diagnostics
+     * a lexical error is recorded and ends the text.
+     */
+    protected int
+    nexttoken()
+        throws VEException
+    {
+        try {
+            return lexer.yylex();
+        } catch (VEException vee) {
+            if(diagnostics == null)
+                throw vee;
+            diagnostics.add(vee);
+            lexer.text.setNext(lexer.text.textlen);
+            return EOF;
+        }
+    }
+
+    /**
+     * Skip the rest of a malformed action, including any blocks
+     * in it, up to the next terminator; a closing brace or EOF
+     * is left to be read again.
+     *
+     * @param depth number of blocks already entered
+     */
+    protected void
+    skip(int depth)
+        throws VEException
+    {
+        for(;;) {
+            int token = nexttoken();
+            switch (token) {
+            case EOF:
+                if(depth > 0)
+                    error("Unclosed block", lexer.getPosition());
+                lexer.pushback();
+                return;
+            case LBRACE:
+                depth++;
+                break;
+            case RBRACE:
+                if(depth == 0) {
+                    lexer.pushback();
+                    return;
+                }
+                depth--;
+                break;
+            case '.':
+            case ';':
+            case '\n':
+                if(depth == 0)
+                    return;
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * Parse text only to collect its errors in diagnostics.
+     * After an error the parse recovers, at the latest at
+     * the next terminator, and goes on; blocks are never lazy.
+     */
+    @Override
+    public void
+    diagnose(CharSequence text, Diagnostics diagnostics)
+    {
+        this.diagnostics = diagnostics;
+        try {
+            this.lexer = new Lexer(text, this);
+            this.program = new ActionList();
+            parseActions(this.program);
+        } catch (VEException vee) {
+            diagnostics.add(vee);
+        } finally {
+            this.diagnostics = null;
+        }
     }
 
     /////////////////////////////////////////////////////
     // Utils
 
+    /**
+     * Table lookup of the character class of c;
+     * code points outside the table are whitespace if
+     * Unicode says so and are otherwise in no class.
+     */
+    static public int
+    charclass(int c)
+    {
+        if(c >= 0 && c < CHARCLASS.length)
+            return CHARCLASS[c];
+        if(Character.isWhitespace(c) || Character.isSpaceChar(c))
+            return CC_SPACE;
+        return 0;
+    }
+
+    /**
+     * @return the offset of the first char in text[from..to)
+     * that is not ignorable whitespace, or to; '\n' and NUL
+     * are not skipped. Only ASCII whitespace is skipped here,
+     * anything else is left to charclass().
+     * An AsciiText is scanned eight chars at a time; a String
+     * or a CharBuffer with a backing array gets its own loop,
+     * so that charAt() is not an interface call per char.
+     */
+    static protected int
+    skipblanks(CharSequence text, int from, int to)
+    {
+        int i = from;
+        if(text instanceof ScriptLoader.AsciiText) {
+            ScriptLoader.AsciiText ascii = (ScriptLoader.AsciiText) text;
+            for(;i + 8 <= to;i += 8) {
+                long others = ~blanks(ascii.getLong(i)) & HIGHBITS;
+                if(others != 0)
+                    return i + (Long.numberOfTrailingZeros(others) >>> 3);
+            }
+        } else if(text instanceof String) {
+            String s = (String) text;
+            while(i < to && isblank(s.charAt(i)))
+                i++;
+            return i;
+        } else if(text instanceof CharBuffer && ((CharBuffer) text).hasArray()) {
+            CharBuffer cb = (CharBuffer) text;
+            char[] chars = cb.array();
+            int base = cb.arrayOffset() + cb.position();
+            int end = base + to;
+            i += base;
+            while(i < end && isblank(chars[i]))
+                i++;
+            return i - base;
+        }
+        for(;i < to;i++) {
+            if(!isblank(text.charAt(i)))
+                break;
+        }
+        return i;
+    }
+
+    /**
+     * @return true if skipblanks() skips c
+     */
+    static protected boolean
+    isblank(char c)
+    {
+        return c < CHARCLASS.length && (CHARCLASS[c] & CC_SPACE) != 0
+            && c != '\n' && c != NULCHAR;
+    }
+
+    /**
+     * @return the offset of the first '\n' or NUL in
+     * text[from..to), or to. An AsciiText is scanned eight
+     * chars at a time, and a CharBuffer with a backing array
+     * (e.g. from ScriptLoader) is searched in the array.
+     * (Lexer.skipcomment() searches a String with indexOf.)
+     */
+    static protected int
+    endofline(CharSequence text, int from, int to)
+    {
+        if(text instanceof ScriptLoader.AsciiText) {
+            ScriptLoader.AsciiText ascii = (ScriptLoader.AsciiText) text;
+            int i = from;
+            for(;i + 8 <= to;i += 8) {
+                long word = ascii.getLong(i);
+                long stops = bytesequal(word, '\n') | bytesequal(word, NULCHAR);
+                if(stops != 0)
+                    return i + (Long.numberOfTrailingZeros(stops) >>> 3);
+            }
+            for(;i < to;i++) {
+                char c = text.charAt(i);
+                if(c == '\n' || c == NULCHAR)
+                    return i;
+            }
+            return to;
+        }
+        if(text instanceof CharBuffer && ((CharBuffer) text).hasArray()) {
+            CharBuffer cb = (CharBuffer) text;
+            char[] chars = cb.array();
+            int base = cb.arrayOffset() + cb.position();
+            int i = base + from;
+            int end = base + to;
+            while(i < end && chars[i] != '\n' && chars[i] != NULCHAR)
+                i++;
+            return i - base;
+        }
+        for(int i = from;i < to;i++) {
+            char c = text.charAt(i);
+            if(c == '\n' || c == NULCHAR)
+                return i;
+        }
+        return to;
+    }
+
+    //////////////////////////////////////////////////
+    // Eight chars at a time, over an AsciiText
+    // (SIMD within a register: each byte of a long is one
+    // char, and the result has the high bit of a byte set
+    // where that char matches)
+
+    static final long LOWBITS = 0x0101010101010101L;
+    static final long HIGHBITS = 0x8080808080808080L;
+    static final long LOW7BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    /**
+     * @return the bytes of word equal to c (&lt; 128); exact,
+     * as no carry crosses from one byte to the next
+     */
+    static protected long
+    bytesequal(long word, int c)
+    {
+        long x = word ^ (LOWBITS * c);
+        return ~(((x & LOW7BITS) + LOW7BITS) | x | LOW7BITS);
+    }
+
+    /**
+     * @return the ASCII bytes of word that skipblanks() skips:
+     * those up to ' ', and DEL, except '\n' and NUL
+     */
+    static protected long
+    blanks(long word)
+    {
+        // Adding 0x5F carries into the high bit from 0x21 up;
+        // the bytes are ASCII, so nothing carries further
+        long space = ~(word + LOWBITS * 0x5F) & HIGHBITS;
+        return (space | bytesequal(word, '\177'))
+            & ~(bytesequal(word, '\n') | bytesequal(word, NULCHAR));
+    }
+
+    /**
+     * Determine if the digit string text[start..end) fits in a long;
+     * equivalent to Long.parseLong succeeding, but without
+     * the exception.
+     */
+    static protected boolean
+    fitslong(CharSequence text, int start, int end, boolean negative)
+    {
+        while(start < end - 1 && text.charAt(start) == '0')
+            start++; // leading zeros do not count
+        int len = end - start;
+        if(len < MAXLONG.length())
+            return true;
+        if(len > MAXLONG.length())
+            return false;
+        for(int i = 0;i < len;i++) {
+            char c = text.charAt(start + i);
+            char m = MAXLONG.charAt(i);
+            if(i == len - 1 && negative)
+                m++; // |Long.MIN_VALUE| = Long.MAX_VALUE + 1
+            if(c != m)
+                return c < m;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if text is an optional sign followed by
+     * digits, and fits in a long; i.e. what the lexer takes
+     * as a NUMBER.
+     */
+    static public boolean
+    islong(CharSequence text)
+    {
+        int len = text.length();
+        int start = (len > 0 && (charclass(text.charAt(0)) & CC_SIGN) != 0 ? 1 : 0);
+        if(start == len)
+            return false;
+        for(int i = start;i < len;i++) {
+            if((charclass(text.charAt(i)) & CC_DIGIT) == 0)
+                return false;
+        }
+        return fitslong(text, start, len, text.charAt(0) == '-');
+    }
+
+    /**
+     * @return the value of text[start..end), which must
+     * satisfy islong(); nothing is allocated.
+     */
+    static public long
+    parselong(CharSequence text, int start, int end)
+    {
+        boolean negative = (text.charAt(start) == '-');
+        if((charclass(text.charAt(start)) & CC_SIGN) != 0)
+            start++;
+        // Accumulate negatively so that Long.MIN_VALUE fits
+        long value = 0;
+        for(int i = start;i < end;i++)
+            value = 10 * value - (text.charAt(i) - '0');
+        return (negative ? value : -value);
+    }
+
+    /**
+     * @return true if text is a valid word; see WORDCHAR1 and WORDCHARN
+     */
+    static public boolean
+    isword(CharSequence text)
+    {
+        int len = text.length();
+        if(len == 0 || (charclass(text.charAt(0)) & CC_WORD1) == 0)
+            return false;
+        for(int i = 1;i < len;i++) {
+            if((charclass(text.charAt(i)) & CC_WORDN) == 0)
+                return false;
+        }
+        return true;
+    }
+
     static public String
     dumptoken(int token, String lval)
         throws VEException
@@ -17,6 +17,8 @@ abstract public class Verb
 
     protected String name = null;
     protected Signature signature = null;
+    protected List<Optimizer.Rewrite> rewrites = new ArrayList<>();
+    protected boolean pure = false;
 
     //////////////////////////////////////////////////
     // Constructor(s)
@@ -49,6 +51,42 @@ abstract public class Verb
         return this.signature;
     }
 
+    /**
+     * @return the rules the Optimizer may apply to actions of this verb
+     */
+    public List<Optimizer.Rewrite> getRewrites()
+    {
+        return this.rewrites;
+    }
+
+    /**
+     * A verb is pure if evaluating it depends only on its args,
+     * and on the effect of its block args, and its only effect
+     * is on the state, in a way that a PartialEvaluator.Target
+     * can capture; see PartialEvaluator.
+     */
+    public boolean isPure()
+    {
+        return this.pure;
+    }
+
+    /**
+     * Declare the verb pure; called by the constructor.
+     */
+    protected void setPure(boolean pure)
+    {
+        this.pure = pure;
+    }
+
+    /**
+     * Declare a rewrite rule; called by the constructor of a verb
+     * that knows the rule leaves its output unchanged.
+     */
+    protected void addRewrite(Optimizer.Rewrite rule)
+    {
+        this.rewrites.add(rule);
+    }
+
     //////////////////////////////////////////////////
 
     public String toString()
@@ -0,0 +1,207 @@
+/*
+This software is released under the Licence terms
+described in the file LICENSE.txt.
+*/
+
+package ucar.ve;
+
+import java.util.Map;
+
+/**
+ * Case-insensitive verb lookup directly from a range of characters,
+ * e.g. a token in the lexer's text, without building a String.
+ * <p>
+ * The table is a perfect hash: a seed is chosen when the table is
+ * built so that no two verb names share a slot, so a lookup is one
+ * hash over the characters and at most one comparison. If no seed
+ * works for any of the table sizes tried, which is likely only for
+ * large verb sets, the table falls back to linear probing.
+ * A name matches a verb if it equals the verb's name once
+ * upper case letters are folded to lower case; as with
+ * a lookup of name.toLowerCase(), a verb whose own name
+ * contains upper case letters can never be found.
+ */
+
+public class VerbTable
+{
+    //////////////////////////////////////////////////
+    // Constants
+
+    static final int MAXSEEDS = 1000; // seeds to try per table size
+    static final int MAXSIZES = 4;    // table sizes to try, doubling each time
+
+    //////////////////////////////////////////////////
+    // Instance variables
+
+    protected String[] names = null;
+    protected Verb[] verbs = null;
+    protected int mask = 0;
+    protected int seed = 0;
+    protected boolean perfect = true; // else probe linearly
+
+    //////////////////////////////////////////////////
+    // Constructor(s)
+
+    public VerbTable(Map<String, Verb> verbs)
+    {
+        int n = 0;
+        String[] keys = new String[verbs.size()];
+        for(String key : verbs.keySet()) {
+            if(folded(key))
+                keys[n++] = key;
+        }
+        int size = 1;
+        while(size < n)
+            size <<= 1;
+        for(int k = 0;k < MAXSIZES;k++, size <<= 1) {
+            for(int s = 0;s < MAXSEEDS;s++) {
+                if(build(keys, n, size, s, verbs))
+                    return;
+            }
+        }
+        // No perfect hash found; size is now at least twice n,
+        // so a probe always reaches an empty slot
+        probe(keys, n, size, verbs);
+    }
+
+    //////////////////////////////////////////////////
+    // API
+
+    /**
+     * @return the verb named by text[start..end), or null
+     */
+    public Verb
+    lookup(CharSequence text, int start, int end)
+    {
+        int slot = hash(text, start, end, this.seed) & this.mask;
+        for(;;) {
+            String name = this.names[slot];
+            if(name == null)
+                return null;
+            if(matches(name, text, start, end))
+                return this.verbs[slot];
+            if(this.perfect)
+                return null;
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    public Verb
+    lookup(CharSequence name)
+    {
+        return lookup(name, 0, name.length());
+    }
+
+    /**
+     * @return true if every name has its own slot
+     */
+    public boolean
+    isPerfect()
+    {
+        return this.perfect;
+    }
+
+    //////////////////////////////////////////////////
+    // Utilities
+
+    /**
+     * Try to place all the keys in a table of the given
+     * size using the given seed.
+     *
+     * @return true if there were no collisions
+     */
+    protected boolean
+    build(String[] keys, int n, int size, int seed, Map<String, Verb> verbs)
+    {
+        String[] names = new String[size];
+        for(int i = 0;i < n;i++) {
+            int slot = hash(keys[i], 0, keys[i].length(), seed) & (size - 1);
+            if(names[slot] != null)
+                return false;
+            names[slot] = keys[i];
+        }
+        this.names = names;
+        this.verbs = new Verb[size];
+        for(int i = 0;i < size;i++) {
+            if(names[i] != null)
+                this.verbs[i] = verbs.get(names[i]);
+        }
+        this.mask = size - 1;
+        this.seed = seed;
+        return true;
+    }
+
+    /**
+     * Place all the keys in a table of the given size,
+     * each in the first free slot from its hash.
+     */
+    protected void
+    probe(String[] keys, int n, int size, Map<String, Verb> verbs)
+    {
+        this.names = new String[size];
+        this.verbs = new Verb[size];
+        this.mask = size - 1;
+        this.seed = 0;
+        this.perfect = false;
+        for(int i = 0;i < n;i++) {
+            int slot = hash(keys[i], 0, keys[i].length(), 0) & this.mask;
+            while(this.names[slot] != null)
+                slot = (slot + 1) & this.mask;
+            this.names[slot] = keys[i];
+            this.verbs[slot] = verbs.get(keys[i]);
+        }
+    }
+
+    static protected boolean
+    matches(String name, CharSequence text, int start, int end)
+    {
+        if(name.length() != end - start)
+            return false;
+        for(int i = 0;i < name.length();i++) {
+            if(fold(text.charAt(start + i)) != name.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The seed picks the multiplier applied at every character,
+     * so names that collide under one seed need not collide
+     * under the next.
+     */
+    static protected int
+    hash(CharSequence text, int start, int end, int seed)
+    {
+        int m = ((seed + 1) * 0x9E3779B9) | 1;
+        int h = seed;
+        for(int i = start;i < end;i++)
+            h = (h ^ fold(text.charAt(i))) * m;
+        // Spread the bits so that the low ones depend on all of them
+        h ^= (h >>> 16);
+        h *= 0x85EBCA6B;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    static protected char
+    fold(char c)
+    {
+        if(c < 128)
+            return (c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        return Character.toLowerCase(c);
+    }
+
+    /**
+     * @return true if key is unchanged by folding,
+     * i.e. it can be matched at all
+     */
+    static protected boolean
+    folded(String key)
+    {
+        for(int i = 0;i < key.length();i++) {
+            if(fold(key.charAt(i)) != key.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}